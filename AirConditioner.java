@@ -1,51 +1,118 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.List;
+import java.util.Objects;
+
 public class AirConditioner extends Device {
+    private static final long serialVersionUID = -8790222990868901385L;
     private int temperature; // in Celsius
-    private String mode;     // "cool", "heat", "fan", "dry"
+    private AirConditionerMode mode;
     
     public AirConditioner(String name) {
         super(name);
         this.temperature = 22;
-        this.mode = "cool";
+        this.mode = AirConditionerMode.COOL;
     }
     
     @Override
-    public String getStatus() {
-        if (!isOn) return String.format("%s: OFF", name);
-        return String.format("%s: ON, Temperature: %d°C, Mode: %s", name, temperature, mode);
+    protected void renderStatus(StringBuilder sb) {
+        sb.append(name);
+        if (!isOn) {
+            sb.append(": OFF");
+            return;
+        }
+        sb.append(": ON, Temperature: ").append(temperature).append("°C, Mode: ").append(mode);
     }
     
     @Override
     public void toggle() {
         isOn = !isOn;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.POWER, !isOn, isOn);
     }
     
     @Override
     public void turnOn() {
+        boolean wasOn = isOn;
         isOn = true;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.POWER, wasOn, true);
     }
     
     @Override
     public void turnOff() {
+        boolean wasOn = isOn;
         isOn = false;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.POWER, wasOn, false);
     }
     
     public void setTemperature(int temperature) {
         if (temperature >= 16 && temperature <= 30) {
-            this.temperature = temperature;
+            int oldTemperature = this.temperature;
+            beginUpdate(); // Turning on and the new temperature go out as one event
+            try {
+                this.temperature = temperature;
+                if (!isOn) turnOn();
+                firePropertyChange(DeviceEvent.TEMPERATURE, oldTemperature, temperature);
+            } finally {
+                endUpdate();
+            }
+        }
+    }
+    
+    public void setMode(AirConditionerMode mode) {
+        Objects.requireNonNull(mode, "mode");
+        AirConditionerMode oldMode = this.mode;
+        beginUpdate();
+        try {
+            this.mode = mode;
             if (!isOn) turnOn();
-            notifyObservers();
+            firePropertyChange(DeviceEvent.MODE, oldMode, mode);
+        } finally {
+            endUpdate();
         }
     }
     
+    // Throws IllegalArgumentException for anything but "cool", "heat", "fan" or "dry"
     public void setMode(String mode) {
-        this.mode = mode;
-        if (!isOn) turnOn();
-        notifyObservers();
+        setMode(AirConditionerMode.parse(mode));
     }
     
     public int getTemperature() { return temperature; }
-    public String getMode() { return mode; }
+    public AirConditionerMode getMode() { return mode; }
+    
+    @Override
+    protected void captureState(List<DeviceEvent> state) {
+        super.captureState(state);
+        state.add(DeviceEvent.ofInt(this, DeviceEvent.TEMPERATURE, temperature, temperature));
+        state.add(DeviceEvent.ofChoice(this, DeviceEvent.MODE, mode, mode));
+    }
+    
+    @Override
+    protected boolean restoreState(String property, long value, String text) {
+        switch (property) {
+            case DeviceEvent.TEMPERATURE: temperature = (int) value; return true;
+            case DeviceEvent.MODE: mode = text != null ? AirConditionerMode.parse(text) : AirConditionerMode.of((int) value); return true;
+            default: return super.restoreState(property, value, text);
+        }
+    }
+    
+    // Java serialization keeps the mode as text, as files saved before the enum have it
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("temperature", int.class),
+        new ObjectStreamField("mode", String.class)
+    };
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("temperature", temperature);
+        fields.put("mode", mode.toString());
+        out.writeFields();
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        temperature = fields.get("temperature", 22);
+        mode = AirConditionerMode.parse((String) fields.get("mode", "cool"));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,27 @@
+import java.util.Locale;
+
+// Operating mode of an air conditioner. Ordinals are stored in saved files and the
+// journal: only ever append new modes.
+public enum AirConditionerMode {
+    COOL, HEAT, FAN, DRY;
+
+    private static final AirConditionerMode[] VALUES = values();
+
+    // "cool", "heat", "fan" or "dry", as shown and saved as text
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public static AirConditionerMode of(int ordinal) {
+        if (ordinal < 0 || ordinal >= VALUES.length) throw new IllegalArgumentException("Unknown air conditioner mode " + ordinal);
+        return VALUES[ordinal];
+    }
+
+    public static AirConditionerMode parse(String text) {
+        for (AirConditionerMode mode : VALUES) {
+            if (mode.toString().equalsIgnoreCase(text)) return mode;
+        }
+        throw new IllegalArgumentException("Unknown air conditioner mode: " + text);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,88 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+// Buffered reader for what BinaryWriter wrote
+public class BinaryReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel; // Null when reading a buffer that holds everything
+    private final ByteBuffer buffer;
+
+    public BinaryReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.limit(0);
+    }
+
+    // Reads the remaining bytes of the buffer in place
+    public BinaryReader(ByteBuffer data) {
+        this.channel = null;
+        this.buffer = data;
+    }
+
+    public static BinaryReader open(Path path) throws IOException {
+        return new BinaryReader(FileChannel.open(path));
+    }
+
+    public int readByte() throws IOException {
+        require(1);
+        return buffer.get();
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public int readShort() throws IOException {
+        require(2);
+        return buffer.getShort();
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        return buffer.getInt();
+    }
+
+    public long readLong() throws IOException {
+        require(8);
+        return buffer.getLong();
+    }
+
+    public void readBytes(byte[] bytes) throws IOException {
+        for (int offset = 0; offset < bytes.length; ) {
+            require(1);
+            int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.get(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    public String readString() throws IOException {
+        int length = readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        readBytes(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) channel.close();
+    }
+
+    private void require(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) return;
+        if (channel == null) throw new EOFException("Unexpected end of data");
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) throw new EOFException("Unexpected end of file");
+        }
+        buffer.flip();
+    }
+}
\ No newline at end of file
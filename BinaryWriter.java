@@ -0,0 +1,91 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Buffered big-endian writer over an NIO channel, the counterpart of BinaryReader.
+// Strings are an int byte count (-1 for null) followed by UTF-8.
+public class BinaryWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    public BinaryWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    public static BinaryWriter create(Path path) throws IOException {
+        return new BinaryWriter(FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    public void writeByte(int value) throws IOException {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        writeByte(value ? 1 : 0);
+    }
+
+    public void writeShort(int value) throws IOException {
+        ensure(2);
+        buffer.putShort((short) value);
+    }
+
+    public void writeInt(int value) throws IOException {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    public void writeBytes(byte[] bytes) throws IOException {
+        for (int offset = 0; offset < bytes.length; ) {
+            ensure(1);
+            int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        writeBytes(bytes);
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush();
+    }
+}
\ No newline at end of file
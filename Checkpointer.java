@@ -0,0 +1,116 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Writes whole files on a background thread so saving never holds up device changes
+// or the UI. A file is written to a temporary file beside it, forced to disk and
+// renamed over the old one, so after a crash there is either the old file or the new
+// one, never a mix. A request for a file that is still waiting to be written is merged
+// into that write, which then uses the newest content.
+public class Checkpointer implements Closeable {
+    // Produces the file content; called on the checkpoint thread
+    public interface Content {
+        void writeTo(BinaryWriter out) throws IOException;
+    }
+
+    private final ExecutorService executor;
+    private final Map<Path, Job> pending = new HashMap<>();
+
+    public Checkpointer(String threadName) {
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Completes once the new file is durable, or exceptionally if it couldn't be written
+    public CompletableFuture<Void> submit(Path target, Content content) {
+        Job job;
+        synchronized (pending) {
+            job = pending.get(target);
+            if (job != null) {
+                job.content = content;
+                return job.done;
+            }
+            job = new Job(target, content);
+            pending.put(target, job);
+        }
+        Job queued = job;
+        executor.execute(() -> run(queued));
+        return job.done;
+    }
+
+    // Lets queued writes finish; nothing new is accepted
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(Job job) {
+        Content content;
+        synchronized (pending) {
+            pending.remove(job.target);
+            content = job.content;
+        }
+        try {
+            writeAtomically(job.target, content);
+            job.done.complete(null);
+        } catch (IOException | RuntimeException e) {
+            job.done.completeExceptionally(e);
+        }
+    }
+
+    public static void writeAtomically(Path target, Content content) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                BinaryWriter out = new BinaryWriter(channel);
+                content.writeTo(out);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        syncDirectory(target.toAbsolutePath().getParent());
+    }
+
+    // Makes a rename or new file in the directory survive a power loss
+    static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories can't be opened or synced on every platform
+        }
+    }
+
+    private static final class Job {
+        final Path target;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        Content content;
+
+        Job(Path target, Content content) {
+            this.target = target;
+            this.content = content;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,171 @@
+import java.io.Serializable;
+import java.time.Month;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+// Cron expression with the usual five fields (minute hour day-of-month month day-of-week)
+// or six with a leading seconds field. Each field is compiled into a bit mask once,
+// so finding the next match never re-parses the text.
+public class CronExpression implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String[] MONTH_NAMES = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+    private static final String[] DAY_NAMES = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+    private static final int MAX_YEARS_AHEAD = 5; // Enough to reach any Feb 29th
+
+    private final String expression;
+    private final long seconds;     // bits 0-59
+    private final long minutes;     // bits 0-59
+    private final long hours;       // bits 0-23
+    private final long daysOfMonth; // bits 1-31
+    private final long months;      // bits 1-12
+    private final long daysOfWeek;  // bits 0-6, Sunday = 0
+    private final boolean dayOfMonthRestricted;
+    private final boolean dayOfWeekRestricted;
+
+    public CronExpression(String expression) {
+        String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 5 && fields.length != 6) {
+            throw new IllegalArgumentException("Cron expression needs 5 or 6 fields: " + expression);
+        }
+        int i = 0;
+        this.expression = expression.trim();
+        this.seconds = fields.length == 6 ? parseField(fields[i++], 0, 59, null) : 1L;
+        this.minutes = parseField(fields[i++], 0, 59, null);
+        this.hours = parseField(fields[i++], 0, 23, null);
+        this.dayOfMonthRestricted = !fields[i].equals("*") && !fields[i].equals("?");
+        this.daysOfMonth = parseField(fields[i++], 1, 31, null);
+        this.months = parseField(fields[i++], 1, 12, MONTH_NAMES);
+        this.dayOfWeekRestricted = !fields[i].equals("*") && !fields[i].equals("?");
+        long dow = parseField(fields[i], 0, 7, DAY_NAMES);
+        if ((dow & (1L << 7)) != 0) dow |= 1L; // 7 is also Sunday
+        this.daysOfWeek = dow & 0x7F;
+        if (!canMatch()) {
+            throw new IllegalArgumentException("Cron expression never matches: " + expression);
+        }
+    }
+
+    // Every field has at least one value, so only a day of month that no chosen month has
+    // can rule out every date, e.g. "0 0 30 2 *". A restricted day of week always matches
+    // some date: on its own, and as the alternative when both day fields are restricted.
+    private boolean canMatch() {
+        if (dayOfWeekRestricted) return true;
+        for (int month = 1; month <= 12; month++) {
+            if (!has(months, month)) continue;
+            if (nextSetBit(daysOfMonth, 1) <= Month.of(month).maxLength()) return true;
+        }
+        return false;
+    }
+
+    // First matching instant strictly after the given time, or null if there is none
+    public ZonedDateTime nextAfter(ZonedDateTime after) {
+        ZonedDateTime t = after.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1);
+        int lastYear = t.getYear() + MAX_YEARS_AHEAD;
+
+        while (t.getYear() <= lastYear) {
+            if (!has(months, t.getMonthValue())) {
+                t = t.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).plusMonths(1);
+                continue;
+            }
+            if (!dayMatches(t)) {
+                t = t.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+                continue;
+            }
+            int hour = nextSetBit(hours, t.getHour());
+            if (hour != t.getHour()) {
+                t = hour < 0 ? t.truncatedTo(ChronoUnit.DAYS).plusDays(1)
+                             : t.truncatedTo(ChronoUnit.HOURS).plusHours(hour - t.getHour());
+                continue;
+            }
+            int minute = nextSetBit(minutes, t.getMinute());
+            if (minute != t.getMinute()) {
+                t = minute < 0 ? t.truncatedTo(ChronoUnit.HOURS).plusHours(1)
+                               : t.truncatedTo(ChronoUnit.MINUTES).plusMinutes(minute - t.getMinute());
+                continue;
+            }
+            int second = nextSetBit(seconds, t.getSecond());
+            if (second != t.getSecond()) {
+                t = second < 0 ? t.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1)
+                               : t.plusSeconds(second - t.getSecond());
+                continue;
+            }
+            return t;
+        }
+        return null;
+    }
+
+    public String getExpression() { return expression; }
+
+    // Same rule as vixie cron: when both day fields are restricted either one may match
+    private boolean dayMatches(ZonedDateTime t) {
+        boolean dom = has(daysOfMonth, t.getDayOfMonth());
+        boolean dow = has(daysOfWeek, t.getDayOfWeek().getValue() % 7);
+        if (dayOfMonthRestricted && dayOfWeekRestricted) return dom || dow;
+        return dom && dow;
+    }
+
+    private static boolean has(long bits, int value) {
+        return (bits & (1L << value)) != 0;
+    }
+
+    private static int nextSetBit(long bits, int from) {
+        long remaining = bits & (-1L << from);
+        return remaining == 0 ? -1 : Long.numberOfTrailingZeros(remaining);
+    }
+
+    private static long parseField(String field, int min, int max, String[] names) {
+        long bits = 0;
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = parseNumber(part.substring(slash + 1), 1, max, null, field);
+                part = part.substring(0, slash);
+            }
+
+            int from;
+            int to;
+            if (part.equals("*") || part.equals("?")) {
+                from = min;
+                to = max;
+            } else {
+                int dash = part.indexOf('-');
+                if (dash >= 0) {
+                    from = parseNumber(part.substring(0, dash), min, max, names, field);
+                    to = parseNumber(part.substring(dash + 1), min, max, names, field);
+                } else {
+                    from = parseNumber(part, min, max, names, field);
+                    to = slash >= 0 ? max : from;
+                }
+            }
+            if (from > to) {
+                throw new IllegalArgumentException("Invalid range in cron field: " + field);
+            }
+            for (int v = from; v <= to; v += step) {
+                bits |= 1L << v;
+            }
+        }
+        return bits;
+    }
+
+    private static int parseNumber(String text, int min, int max, String[] names, String field) {
+        if (names != null) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equalsIgnoreCase(text)) {
+                    return names == MONTH_NAMES ? i + 1 : i;
+                }
+            }
+        }
+        try {
+            int value = Integer.parseInt(text);
+            if (value >= min && value <= max) return value;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid value '" + text + "' in cron field: " + field);
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
\ No newline at end of file
@@ -1,32 +1,90 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class Device implements Observable, Serializable {
-    protected String id;
+    // Pinned to the value computed for the first release, whose saved files must still load
+    private static final long serialVersionUID = -829762369977915832L;
+    // Scratch space for renderStatus(), reused by each thread
+    private static final ThreadLocal<StringBuilder> STATUS_BUILDER = ThreadLocal.withInitial(() -> new StringBuilder(96));
+    
+    private long idHigh; // UUID alias, see Ids
+    private long idLow;
+    private transient String idText; // The alias as text, made when first asked for
+    private transient long key;
     protected String name;
     protected boolean isOn;
     protected List<Observer> observers;
+    transient DeviceRegistry registry; // Set while the device is registered with a controller
+    transient long registrySeq;
+    private transient int updateDepth;
+    private transient List<DeviceEvent> pendingChanges; // Collected while an update scope is open
+    private transient volatile long version; // Bumped by every property change
+    private transient volatile RenderedStatus status; // Last getStatus() result
+    private transient volatile RenderedStatus summary; // Last toString() result
     
     public Device(String name) {
-        this.id = UUID.randomUUID().toString();
+        UUID alias = Ids.randomUuid();
+        this.idHigh = alias.getMostSignificantBits();
+        this.idLow = alias.getLeastSignificantBits();
+        this.key = Ids.nextKey();
         this.name = name;
         this.isOn = false;
-        this.observers = new ArrayList<>();
+        this.observers = new CopyOnWriteArrayList<>(); // Notified from the scheduler thread and the EDT
     }
     
-    public abstract String getStatus();
     public abstract void toggle();
     public abstract void turnOn();
     public abstract void turnOff();
     
     // Getters and Setters
-    public String getId() { return id; }
+    // The UUID alias, for saved files and outside callers; getKey() is the cheap identity
+    public String getId() {
+        String text = idText;
+        if (text == null) idText = text = new UUID(idHigh, idLow).toString();
+        return text;
+    }
+    public long getKey() { return key; }
+    long getIdHigh() { return idHigh; }
+    long getIdLow() { return idLow; }
     public String getName() { return name; }
-    public void setName(String name) { this.name = name; }
+    public void setName(String name) {
+        String oldName = this.name;
+        this.name = name;
+        if (registry != null) registry.nameChanged(this, oldName);
+        firePropertyChange(DeviceEvent.NAME, oldName, name);
+    }
     public boolean isOn() { return isOn; }
     
+    // Changes since the device was created or loaded; equal versions mean equal state
+    public long getVersion() { return version; }
+    
+    // Rendered again only after a change, otherwise the previous string is handed back.
+    // A change made while rendering moves the version on, so the next call renders again.
+    public String getStatus() {
+        long current = version;
+        RenderedStatus rendered = status;
+        if (rendered != null && rendered.version == current) return rendered.text;
+        StringBuilder sb = STATUS_BUILDER.get();
+        sb.setLength(0);
+        renderStatus(sb);
+        String text = sb.toString();
+        status = new RenderedStatus(current, text);
+        return text;
+    }
+    
+    // Appends the status line, e.g. "Lamp: ON, Brightness: 50%, Color: warm"
+    protected abstract void renderStatus(StringBuilder sb);
+    
     // Observable implementation
     @Override
     public void addObserver(Observer observer) {
@@ -40,13 +98,198 @@ public abstract class Device implements Observable, Serializable {
     
     @Override
     public void notifyObservers() {
+        if (observers.isEmpty()) return;
+        String status = getStatus();
+        for (Observer observer : observers) {
+            observer.update(status);
+        }
+    }
+    
+    // Everything changed between beginUpdate() and the matching endUpdate() reaches
+    // observers as a single event. Scopes nest, only the outermost one delivers.
+    // Like the setters themselves, a scope is meant to be used from one thread at a time.
+    public void beginUpdate() {
+        updateDepth++;
+    }
+    
+    public void endUpdate() {
+        if (updateDepth == 0) {
+            throw new IllegalStateException("endUpdate() without beginUpdate()");
+        }
+        if (--updateDepth > 0 || pendingChanges == null) return;
+        
+        List<DeviceEvent> changes = pendingChanges;
+        pendingChanges = null;
+        if (!changes.isEmpty()) {
+            publish(DeviceEvent.compound(changes));
+        }
+    }
+    
+    // Typed change notifications used by the setters. Nothing is built when the value
+    // didn't change or nobody is listening, and no text is formatted until a consumer asks.
+    protected void firePropertyChange(String property, boolean oldValue, boolean newValue) {
+        if (oldValue == newValue) return;
+        version++;
+        if (!observers.isEmpty()) {
+            publish(DeviceEvent.ofBoolean(this, property, oldValue, newValue));
+        }
+    }
+    
+    protected void firePropertyChange(String property, int oldValue, int newValue) {
+        if (oldValue == newValue) return;
+        version++;
+        if (!observers.isEmpty()) {
+            publish(DeviceEvent.ofInt(this, property, oldValue, newValue));
+        }
+    }
+    
+    protected void firePropertyChange(String property, String oldValue, String newValue) {
+        if (Objects.equals(oldValue, newValue)) return;
+        version++;
+        if (!observers.isEmpty()) {
+            publish(DeviceEvent.ofText(this, property, oldValue, newValue));
+        }
+    }
+    
+    protected void firePropertyChange(String property, Enum<?> oldValue, Enum<?> newValue) {
+        if (oldValue == newValue) return;
+        version++;
+        if (!observers.isEmpty()) {
+            publish(DeviceEvent.ofChoice(this, property, oldValue, newValue));
+        }
+    }
+    
+    private void publish(DeviceEvent event) {
+        if (updateDepth > 0) {
+            collect(event);
+            return;
+        }
         for (Observer observer : observers) {
-            observer.update(getStatus());
+            observer.onEvent(event);
+        }
+    }
+    
+    private void collect(DeviceEvent event) {
+        if (pendingChanges == null) pendingChanges = new ArrayList<>(4);
+        DeviceEvent.fold(pendingChanges, event);
+    }
+    
+    // Full state as one compound event: an ADDED change naming the class, then every
+    // property with its current value. Immutable, so it doubles as a saved copy.
+    DeviceEvent describeState() {
+        List<DeviceEvent> state = new ArrayList<>(8);
+        state.add(DeviceEvent.ofText(this, DeviceEvent.ADDED, null, getClass().getName()));
+        captureState(state);
+        return DeviceEvent.compound(state);
+    }
+    
+    protected void captureState(List<DeviceEvent> state) {
+        state.add(DeviceEvent.ofText(this, DeviceEvent.NAME, name, name));
+        state.add(DeviceEvent.ofBoolean(this, DeviceEvent.POWER, isOn, isOn));
+    }
+    
+    // Sets a property straight from a recorded value, without notifying anyone. Returns
+    // false for properties this device doesn't have.
+    protected boolean restoreState(String property, long value, String text) {
+        switch (property) {
+            case DeviceEvent.NAME: name = text; return true;
+            case DeviceEvent.POWER: isOn = value != 0; return true;
+            default: return false;
+        }
+    }
+    
+    // restoreState() on a device whose old state may have been rendered or saved already
+    boolean replayState(String property, long value, String text) {
+        if (!restoreState(property, value, text)) return false;
+        version++;
+        return true;
+    }
+    
+    // Rebuilds a device from describeState()
+    static Device restore(DeviceEvent state) throws ReflectiveOperationException {
+        DeviceEvent[] changes = state.getChanges();
+        Device device = instantiate(changes[0].getNewText(), state.getDeviceIdHigh(), state.getDeviceIdLow());
+        for (int i = 1; i < changes.length; i++) {
+            DeviceEvent change = changes[i];
+            device.restoreState(change.getProperty(), change.getNewValue(), change.getNewText());
         }
+        return device;
     }
     
+    // Blank device of the named class with the given UUID, its state is restored afterwards
+    static Device instantiate(String className, long idHigh, long idLow) throws ReflectiveOperationException {
+        Device device = blank(Class.forName(className).asSubclass(Device.class));
+        device.setId(idHigh, idLow);
+        return device;
+    }
+    
+    // New device from the type's constructor taking only strings, given empty ones
+    static <T extends Device> T blank(Class<T> type) throws ReflectiveOperationException {
+        for (Constructor<?> constructor : type.getConstructors()) {
+            Class<?>[] parameters = constructor.getParameterTypes();
+            if (!Arrays.stream(parameters).allMatch(p -> p == String.class)) continue;
+            Object[] arguments = new Object[parameters.length];
+            Arrays.fill(arguments, "");
+            return type.cast(constructor.newInstance(arguments));
+        }
+        throw new NoSuchMethodException(type.getName() + " has no constructor taking only strings");
+    }
+    
+    // Takes on a saved UUID; only for devices that aren't registered yet
+    void setId(long idHigh, long idLow) {
+        this.idHigh = idHigh;
+        this.idLow = idLow;
+        this.idText = null;
+    }
+    
+    // Java serialization keeps the id as text, as files saved before the key existed have it
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("id", String.class),
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("isOn", boolean.class),
+        new ObjectStreamField("observers", List.class)
+    };
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", getId());
+        fields.put("name", name);
+        fields.put("isOn", isOn);
+        fields.put("observers", observers);
+        out.writeFields();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        UUID alias = UUID.fromString((String) fields.get("id", null));
+        idHigh = alias.getMostSignificantBits();
+        idLow = alias.getLeastSignificantBits();
+        key = Ids.nextKey();
+        name = (String) fields.get("name", null);
+        isOn = fields.get("isOn", false);
+        List<Observer> saved = (List<Observer>) fields.get("observers", null);
+        observers = saved == null ? new CopyOnWriteArrayList<>() : new CopyOnWriteArrayList<>(saved);
+    }
+    
+    // Cached against the version like getStatus()
     @Override
     public String toString() {
-        return String.format("%s (%s): %s", name, getClass().getSimpleName(), isOn ? "ON" : "OFF");
+        long current = version;
+        RenderedStatus rendered = summary;
+        if (rendered != null && rendered.version == current) return rendered.text;
+        String text = name + " (" + getClass().getSimpleName() + "): " + (isOn ? "ON" : "OFF");
+        summary = new RenderedStatus(current, text);
+        return text;
+    }
+    
+    private static final class RenderedStatus {
+        final long version;
+        final String text;
+        
+        RenderedStatus(long version, String text) {
+            this.version = version;
+            this.text = text;
+        }
     }
 }
\ No newline at end of file
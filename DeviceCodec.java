@@ -0,0 +1,282 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Hand-written binary form of each built-in device type. A record is the type id, the
+// codec version it was written with, the common Device fields and then the fields of
+// the type. Readers accept every version up to their own, so a codec that gains a field
+// bumps its version and reads older records without it. Enum properties are written as
+// their ordinal in one byte; version 1 of the codecs wrote them as text.
+public abstract class DeviceCodec<T extends Device> {
+    private static final int CHUNK_RECORDS = 1024;
+    private static final Map<Integer, DeviceCodec<?>> BY_ID = new HashMap<>();
+    private static final Map<Class<?>, DeviceCodec<?>> BY_TYPE = new HashMap<>();
+
+    // Type ids are stored in files: never reuse or renumber them
+    static {
+        register(new LightCodec());
+        register(new FanCodec());
+        register(new AirConditionerCodec());
+        register(new ThermostatCodec());
+        register(new DoorLockCodec());
+        register(new SecurityCameraCodec());
+    }
+
+    private final int typeId;
+    private final int version;
+    private final Class<T> type;
+
+    protected DeviceCodec(int typeId, int version, Class<T> type) {
+        this.typeId = typeId;
+        this.version = version;
+        this.type = type;
+    }
+
+    private static void register(DeviceCodec<?> codec) {
+        BY_ID.put(codec.typeId, codec);
+        BY_TYPE.put(codec.type, codec);
+    }
+
+    public static void write(Device device, BinaryWriter out) throws IOException {
+        DeviceCodec<?> codec = BY_TYPE.get(device.getClass());
+        if (codec == null) throw new IOException("No codec for " + device.getClass().getName());
+        codec.writeRecord(device, out);
+    }
+
+    public static Device read(BinaryReader in) throws IOException {
+        int typeId = in.readByte();
+        int version = in.readByte();
+        DeviceCodec<?> codec = BY_ID.get(typeId);
+        if (codec == null) throw new IOException("Unknown device type " + typeId);
+        if (version > codec.version) {
+            throw new IOException(codec.type.getSimpleName() + " record version " + version + " is newer than this program");
+        }
+
+        long idHigh = in.readLong();
+        long idLow = in.readLong();
+        String name = in.readString();
+        boolean on = in.readBoolean();
+        Device device = codec.readFields(in, version, name);
+        checkNumbers(device);
+        device.setId(idHigh, idLow);
+        device.restoreState(DeviceEvent.POWER, on ? 1 : 0, null);
+        return device;
+    }
+
+    // The setters never store a number outside its property's range, so one that is
+    // out of range means the record is corrupt
+    private static void checkNumbers(Device device) throws IOException {
+        for (DeviceProperty<?> property : DeviceProperty.of(device.getClass())) {
+            if (property.getKind() != DeviceEvent.ValueKind.INT) continue;
+            try {
+                property.checkValue(property.getInt(device));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Bad " + property.getName() + " in " + device.getClass().getSimpleName() + " record", e);
+            }
+        }
+    }
+
+    // A device list as chunks of records, each starting with its record count and byte
+    // length, so a reader can hand whole chunks to other threads without decoding them
+    public static void writeChunked(List<Device> devices, BinaryWriter out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        BinaryWriter chunk = new BinaryWriter(Channels.newChannel(bytes));
+        for (int start = 0; start < devices.size(); start += CHUNK_RECORDS) {
+            int end = Math.min(devices.size(), start + CHUNK_RECORDS);
+            bytes.reset();
+            for (int i = start; i < end; i++) {
+                write(devices.get(i), chunk);
+            }
+            chunk.flush();
+            out.writeInt(end - start);
+            out.writeInt(bytes.size());
+            out.writeBytes(bytes.toByteArray());
+        }
+    }
+
+    // Reads the chunks writeChunked wrote for 'count' devices. This thread only reads the
+    // bytes; chunks are decoded on the common pool while later ones are still being read,
+    // and the list comes back in file order.
+    public static List<Device> readChunked(BinaryReader in, int count) throws IOException {
+        List<CompletableFuture<List<Device>>> chunks = new ArrayList<>();
+        for (int read = 0; read < count; ) {
+            int records = in.readInt();
+            int length = in.readInt();
+            if (records <= 0 || records > count - read || length < 0) throw new IOException("Corrupt device chunk");
+            byte[] bytes = new byte[length];
+            in.readBytes(bytes);
+            chunks.add(CompletableFuture.supplyAsync(() -> readChunk(bytes, records)));
+            read += records;
+        }
+
+        List<Device> devices = new ArrayList<>(count);
+        try {
+            for (CompletableFuture<List<Device>> chunk : chunks) {
+                devices.addAll(chunk.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+            throw e;
+        }
+        return devices;
+    }
+
+    private static List<Device> readChunk(byte[] bytes, int records) {
+        BinaryReader in = new BinaryReader(ByteBuffer.wrap(bytes));
+        List<Device> devices = new ArrayList<>(records);
+        try {
+            for (int i = 0; i < records; i++) {
+                devices.add(read(in));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return devices;
+    }
+
+    private void writeRecord(Device device, BinaryWriter out) throws IOException {
+        out.writeByte(typeId);
+        out.writeByte(version);
+        out.writeLong(device.getIdHigh());
+        out.writeLong(device.getIdLow());
+        out.writeString(device.getName());
+        out.writeBoolean(device.isOn());
+        writeFields(type.cast(device), out);
+    }
+
+    protected abstract void writeFields(T device, BinaryWriter out) throws IOException;
+
+    // Creates the device from its name and type fields; the common fields are set afterwards
+    protected abstract T readFields(BinaryReader in, int version, String name) throws IOException;
+
+    // An enum property: its name as text up to version 1, its ordinal byte since
+    private static void restoreChoice(Device device, String property, BinaryReader in, int version) throws IOException {
+        try {
+            if (version < 2) {
+                device.restoreState(property, 0, in.readString());
+            } else {
+                device.restoreState(property, in.readByte(), null);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad " + property + " in " + device.getClass().getSimpleName() + " record", e);
+        }
+    }
+
+    private static final class LightCodec extends DeviceCodec<Light> {
+        LightCodec() { super(1, 2, Light.class); }
+
+        @Override
+        protected void writeFields(Light light, BinaryWriter out) throws IOException {
+            out.writeInt(light.getBrightness());
+            out.writeByte(light.getColor().ordinal());
+        }
+
+        @Override
+        protected Light readFields(BinaryReader in, int version, String name) throws IOException {
+            Light light = new Light(name);
+            light.restoreState(DeviceEvent.BRIGHTNESS, in.readInt(), null);
+            restoreChoice(light, DeviceEvent.COLOR, in, version);
+            return light;
+        }
+    }
+
+    private static final class FanCodec extends DeviceCodec<Fan> {
+        FanCodec() { super(2, 1, Fan.class); }
+
+        @Override
+        protected void writeFields(Fan fan, BinaryWriter out) throws IOException {
+            out.writeInt(fan.getSpeed());
+            out.writeBoolean(fan.isOscillating());
+        }
+
+        @Override
+        protected Fan readFields(BinaryReader in, int version, String name) throws IOException {
+            Fan fan = new Fan(name);
+            fan.restoreState(DeviceEvent.SPEED, in.readInt(), null);
+            fan.restoreState(DeviceEvent.OSCILLATING, in.readBoolean() ? 1 : 0, null);
+            return fan;
+        }
+    }
+
+    private static final class AirConditionerCodec extends DeviceCodec<AirConditioner> {
+        AirConditionerCodec() { super(3, 2, AirConditioner.class); }
+
+        @Override
+        protected void writeFields(AirConditioner ac, BinaryWriter out) throws IOException {
+            out.writeInt(ac.getTemperature());
+            out.writeByte(ac.getMode().ordinal());
+        }
+
+        @Override
+        protected AirConditioner readFields(BinaryReader in, int version, String name) throws IOException {
+            AirConditioner ac = new AirConditioner(name);
+            ac.restoreState(DeviceEvent.TEMPERATURE, in.readInt(), null);
+            restoreChoice(ac, DeviceEvent.MODE, in, version);
+            return ac;
+        }
+    }
+
+    private static final class ThermostatCodec extends DeviceCodec<Thermostat> {
+        ThermostatCodec() { super(4, 2, Thermostat.class); }
+
+        @Override
+        protected void writeFields(Thermostat thermostat, BinaryWriter out) throws IOException {
+            out.writeInt(thermostat.getTargetTemperature());
+            out.writeInt(thermostat.getCurrentTemperature());
+            out.writeByte(thermostat.getMode().ordinal());
+        }
+
+        @Override
+        protected Thermostat readFields(BinaryReader in, int version, String name) throws IOException {
+            Thermostat thermostat = new Thermostat(name);
+            thermostat.restoreState(DeviceEvent.TARGET_TEMPERATURE, in.readInt(), null);
+            thermostat.restoreState(DeviceEvent.CURRENT_TEMPERATURE, in.readInt(), null);
+            restoreChoice(thermostat, DeviceEvent.MODE, in, version);
+            return thermostat;
+        }
+    }
+
+    private static final class DoorLockCodec extends DeviceCodec<DoorLock> {
+        DoorLockCodec() { super(5, 1, DoorLock.class); }
+
+        @Override
+        protected void writeFields(DoorLock lock, BinaryWriter out) throws IOException {
+            out.writeString(lock.getLocation());
+            out.writeBoolean(lock.isLocked());
+        }
+
+        @Override
+        protected DoorLock readFields(BinaryReader in, int version, String name) throws IOException {
+            DoorLock lock = new DoorLock(name, in.readString());
+            lock.restoreState(DeviceEvent.LOCKED, in.readBoolean() ? 1 : 0, null);
+            return lock;
+        }
+    }
+
+    private static final class SecurityCameraCodec extends DeviceCodec<SecurityCamera> {
+        SecurityCameraCodec() { super(6, 1, SecurityCamera.class); }
+
+        @Override
+        protected void writeFields(SecurityCamera camera, BinaryWriter out) throws IOException {
+            out.writeString(camera.getLocation());
+            out.writeBoolean(camera.isRecording());
+            out.writeInt(camera.getResolution());
+        }
+
+        @Override
+        protected SecurityCamera readFields(BinaryReader in, int version, String name) throws IOException {
+            SecurityCamera camera = new SecurityCamera(name, in.readString());
+            camera.restoreState(DeviceEvent.RECORDING, in.readBoolean() ? 1 : 0, null);
+            camera.restoreState(DeviceEvent.RESOLUTION, in.readInt(), null);
+            return camera;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,504 @@
+import java.util.*;
+import java.util.function.IntPredicate;
+
+// Optional columnar store for very large simulated fleets. Instead of one object per
+// device, each device type gets a table with one primitive column per property and a
+// device is a row in it: flags and enum values such as modes and colors are bytes,
+// numbers ints, other texts int codes into a per-column dictionary, and the UUID two longs. Scanning one
+// property of every light is then a loop over one array.
+//
+// Devices are addressed by int handles, the type's table in the top byte and the row
+// below it. view() makes an ordinary Device for a handle and writes its changes straight
+// back to the columns, for code that needs the full Device API. A view reads the columns
+// when it is made, so views are meant to be short-lived. The columns of a type are worked
+// out from its captureState(), so new device types need nothing here.
+//
+// Not synchronized: like the device setters, use it from one thread at a time.
+public class DeviceColumns {
+    private static final int ROW_BITS = 24;
+    private static final int ROW_MASK = (1 << ROW_BITS) - 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final List<Table> tables = new ArrayList<>();
+    private final Map<Class<?>, Table> byType = new HashMap<>();
+    private int size;
+
+    // Copies the device's current state into a new row and returns its handle
+    public int add(Device device) {
+        DeviceEvent[] state = device.describeState().getChanges();
+        Table table = tableFor(device.getClass(), state);
+        int row = table.append(device.getIdHigh(), device.getIdLow());
+        for (DeviceEvent change : state) {
+            table.write(row, change);
+        }
+        size++;
+        return handle(table, row);
+    }
+
+    // Adds count devices with the prototype's state, new ids and the prototype's name
+    // followed by a number. The handles are consecutive, starting at the one returned.
+    public int addCopies(Device prototype, int count) {
+        if (count < 1) throw new IllegalArgumentException("Count must be at least 1");
+        int first = add(prototype);
+        Table table = tables.get(first >>> ROW_BITS);
+        int source = first & ROW_MASK;
+        table.names[source] = prototype.getName() + " 1";
+        for (int i = 2; i <= count; i++) {
+            UUID id = Ids.randomUuid();
+            int row = table.append(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            table.copyRow(source, row);
+            table.names[row] = prototype.getName() + " " + i;
+        }
+        size += count - 1;
+        return first;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int size(Class<? extends Device> type) {
+        int count = 0;
+        for (Table table : tablesOf(type)) {
+            count += table.size;
+        }
+        return count;
+    }
+
+    public Class<? extends Device> getType(int handle) {
+        return table(handle).type;
+    }
+
+    public String getId(int handle) {
+        Table table = table(handle);
+        int row = row(handle, table);
+        return new UUID(table.idHigh[row], table.idLow[row]).toString();
+    }
+
+    public String getName(int handle) {
+        Table table = table(handle);
+        return table.names[row(handle, table)];
+    }
+
+    // Booleans read as 0 or 1, enum values as their ordinal
+    public int getInt(int handle, String property) {
+        Table table = table(handle);
+        return table.column(property).getInt(row(handle, table));
+    }
+
+    public String getText(int handle, String property) {
+        Table table = table(handle);
+        return table.column(property).getText(row(handle, table));
+    }
+
+    // Writes the column directly; no events, and views made earlier don't see it
+    public void setInt(int handle, String property, int value) {
+        Table table = table(handle);
+        table.column(property).setInt(row(handle, table), value);
+    }
+
+    // A Device of the stored type with the stored state. Changes made through it go
+    // back into the columns as they happen.
+    public Device view(int handle) {
+        Table table = table(handle);
+        int row = row(handle, table);
+        Device device;
+        try {
+            device = Device.instantiate(table.type.getName(), table.idHigh[row], table.idLow[row]);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't create a view of " + table.type.getName(), e);
+        }
+        device.restoreState(DeviceEvent.NAME, 0, table.names[row]);
+        for (int i = 0; i < table.columns.length; i++) {
+            Column column = table.columns[i];
+            device.restoreState(table.properties[i], column.getValue(row), column.getTextOrNull(row));
+        }
+        device.addObserver(new WriteBack(table, row));
+        return device;
+    }
+
+    // Bulk operations over every device of the type (and its subclasses)
+
+    // Number of devices whose int, boolean or enum property passes the test, e.g.
+    // countWhere(Light.class, DeviceEvent.POWER, on -> on != 0)
+    public int countWhere(Class<? extends Device> type, String property, IntPredicate test) {
+        int count = 0;
+        for (Table table : tablesOf(type)) {
+            count += table.column(property).countWhere(table.size, test);
+        }
+        return count;
+    }
+
+    // Number of devices whose text or enum property equals the value, e.g. "cool"
+    public int countEqual(Class<? extends Device> type, String property, String value) {
+        int count = 0;
+        for (Table table : tablesOf(type)) {
+            count += table.column(property).countEqual(table.size, value);
+        }
+        return count;
+    }
+
+    public long sum(Class<? extends Device> type, String property) {
+        long sum = 0;
+        for (Table table : tablesOf(type)) {
+            sum += table.column(property).sum(table.size);
+        }
+        return sum;
+    }
+
+    // Sets an int, boolean or enum (by ordinal) property on every device, e.g. everything off; no events
+    public void setAll(Class<? extends Device> type, String property, int value) {
+        for (Table table : tablesOf(type)) {
+            table.column(property).fill(table.size, value);
+        }
+    }
+
+    private Table tableFor(Class<? extends Device> type, DeviceEvent[] state) {
+        Table table = byType.get(type);
+        if (table == null) {
+            if (tables.size() > 0xFF) throw new IllegalStateException("Too many device types");
+            table = new Table(tables.size(), type, state);
+            tables.add(table);
+            byType.put(type, table);
+        }
+        return table;
+    }
+
+    private List<Table> tablesOf(Class<? extends Device> type) {
+        List<Table> matches = new ArrayList<>();
+        for (Table table : tables) {
+            if (type.isAssignableFrom(table.type)) matches.add(table);
+        }
+        return matches;
+    }
+
+    private static int handle(Table table, int row) {
+        return (table.index << ROW_BITS) | row;
+    }
+
+    private Table table(int handle) {
+        int index = handle >>> ROW_BITS;
+        if (index >= tables.size()) throw new IllegalArgumentException("Unknown handle " + handle);
+        return tables.get(index);
+    }
+
+    private static int row(int handle, Table table) {
+        int row = handle & ROW_MASK;
+        if (row >= table.size) throw new IllegalArgumentException("Unknown handle " + handle);
+        return row;
+    }
+
+    // Rows of one device type. The name has its own column, every other property
+    // captureState() reports gets one of the kind it reports.
+    private static final class Table {
+        final int index;
+        final Class<? extends Device> type;
+        final String[] properties;
+        final Column[] columns;
+        final Map<String, Column> byProperty = new HashMap<>();
+        long[] idHigh = new long[INITIAL_CAPACITY];
+        long[] idLow = new long[INITIAL_CAPACITY];
+        String[] names = new String[INITIAL_CAPACITY];
+        int size;
+
+        Table(int index, Class<? extends Device> type, DeviceEvent[] state) {
+            this.index = index;
+            this.type = type;
+            List<String> found = new ArrayList<>();
+            List<Column> made = new ArrayList<>();
+            for (DeviceEvent change : state) {
+                String property = change.getProperty();
+                if (property.equals(DeviceEvent.ADDED) || property.equals(DeviceEvent.NAME)) continue;
+                Column column = Column.of(change.getKind());
+                found.add(property);
+                made.add(column);
+                byProperty.put(property, column);
+            }
+            this.properties = found.toArray(new String[0]);
+            this.columns = made.toArray(new Column[0]);
+        }
+
+        int append(long high, long low) {
+            if (size > ROW_MASK) throw new IllegalStateException("Too many " + type.getSimpleName() + " devices");
+            if (size == names.length) {
+                int capacity = Math.min(names.length * 2, ROW_MASK + 1);
+                idHigh = Arrays.copyOf(idHigh, capacity);
+                idLow = Arrays.copyOf(idLow, capacity);
+                names = Arrays.copyOf(names, capacity);
+                for (Column column : columns) {
+                    column.grow(capacity);
+                }
+            }
+            int row = size++;
+            idHigh[row] = high;
+            idLow[row] = low;
+            return row;
+        }
+
+        void copyRow(int from, int to) {
+            for (Column column : columns) {
+                column.copy(from, to);
+            }
+        }
+
+        void write(int row, DeviceEvent change) {
+            String property = change.getProperty();
+            if (property.equals(DeviceEvent.NAME)) {
+                names[row] = change.getNewText();
+                return;
+            }
+            Column column = byProperty.get(property);
+            if (column != null) column.setValue(row, change.getNewValue(), change.getNewText());
+        }
+
+        Column column(String property) {
+            Column column = byProperty.get(property);
+            if (column == null) throw new IllegalArgumentException(type.getSimpleName() + " has no column " + property);
+            return column;
+        }
+    }
+
+    private abstract static class Column {
+        static Column of(DeviceEvent.ValueKind kind) {
+            switch (kind) {
+                case BOOLEAN: return new FlagColumn();
+                case INT: return new IntColumn();
+                case CHOICE: return new ChoiceColumn();
+                default: return new TextColumn();
+            }
+        }
+
+        abstract void grow(int capacity);
+        abstract void copy(int from, int to);
+        abstract long getValue(int row);
+        abstract void setValue(int row, long value, String text);
+
+        String getTextOrNull(int row) {
+            return null;
+        }
+
+        int getInt(int row) {
+            return (int) getValue(row);
+        }
+
+        void setInt(int row, int value) {
+            setValue(row, value, null);
+        }
+
+        String getText(int row) {
+            throw new IllegalArgumentException("Not a text column");
+        }
+
+        int countWhere(int size, IntPredicate test) {
+            throw new IllegalArgumentException("Not a number column");
+        }
+
+        int countEqual(int size, String value) {
+            throw new IllegalArgumentException("Not a text column");
+        }
+
+        long sum(int size) {
+            throw new IllegalArgumentException("Not a number column");
+        }
+
+        void fill(int size, int value) {
+            throw new IllegalArgumentException("Not a number column");
+        }
+    }
+
+    private static final class FlagColumn extends Column {
+        byte[] values = new byte[INITIAL_CAPACITY];
+
+        void grow(int capacity) { values = Arrays.copyOf(values, capacity); }
+        void copy(int from, int to) { values[to] = values[from]; }
+        long getValue(int row) { return values[row]; }
+        void setValue(int row, long value, String text) { values[row] = (byte) (value != 0 ? 1 : 0); }
+
+        @Override
+        int countWhere(int size, IntPredicate test) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (test.test(values[i])) count++;
+            }
+            return count;
+        }
+
+        @Override
+        long sum(int size) {
+            long sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += values[i];
+            }
+            return sum;
+        }
+
+        @Override
+        void fill(int size, int value) {
+            Arrays.fill(values, 0, size, (byte) (value != 0 ? 1 : 0));
+        }
+    }
+
+    private static final class IntColumn extends Column {
+        int[] values = new int[INITIAL_CAPACITY];
+
+        void grow(int capacity) { values = Arrays.copyOf(values, capacity); }
+        void copy(int from, int to) { values[to] = values[from]; }
+        long getValue(int row) { return values[row]; }
+        void setValue(int row, long value, String text) { values[row] = (int) value; }
+
+        @Override
+        int countWhere(int size, IntPredicate test) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (test.test(values[i])) count++;
+            }
+            return count;
+        }
+
+        @Override
+        long sum(int size) {
+            long sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += values[i];
+            }
+            return sum;
+        }
+
+        @Override
+        void fill(int size, int value) {
+            Arrays.fill(values, 0, size, value);
+        }
+    }
+
+    // Codes into the distinct values seen so far, which for modes and colors is a handful
+    private static final class TextColumn extends Column {
+        int[] codes = new int[INITIAL_CAPACITY];
+        final List<String> texts = new ArrayList<>();
+        final Map<String, Integer> codeOf = new HashMap<>();
+
+        void grow(int capacity) { codes = Arrays.copyOf(codes, capacity); }
+        void copy(int from, int to) { codes[to] = codes[from]; }
+        long getValue(int row) { return 0; }
+        void setValue(int row, long value, String text) { codes[row] = code(text); }
+
+        @Override
+        String getTextOrNull(int row) {
+            return texts.get(codes[row]);
+        }
+
+        @Override
+        String getText(int row) {
+            return texts.get(codes[row]);
+        }
+
+        @Override
+        int getInt(int row) {
+            throw new IllegalArgumentException("Not a number column");
+        }
+
+        @Override
+        void setInt(int row, int value) {
+            throw new IllegalArgumentException("Not a number column");
+        }
+
+        @Override
+        int countEqual(int size, String value) {
+            Integer code = codeOf.get(value);
+            if (code == null) return 0;
+            int wanted = code;
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (codes[i] == wanted) count++;
+            }
+            return count;
+        }
+
+        private int code(String text) {
+            Integer code = codeOf.get(text);
+            if (code == null) {
+                code = texts.size();
+                texts.add(text);
+                codeOf.put(text, code);
+            }
+            return code;
+        }
+    }
+
+    // Enum ordinals, one byte each. Their names are learned from the events written, so
+    // getText() is null for an ordinal only ever set by number.
+    private static final class ChoiceColumn extends Column {
+        byte[] values = new byte[INITIAL_CAPACITY];
+        String[] names = new String[0];
+
+        void grow(int capacity) { values = Arrays.copyOf(values, capacity); }
+        void copy(int from, int to) { values[to] = values[from]; }
+        long getValue(int row) { return values[row]; }
+
+        void setValue(int row, long value, String text) {
+            check(value);
+            values[row] = (byte) value;
+            if (text == null) return;
+            if (value >= names.length) names = Arrays.copyOf(names, (int) value + 1);
+            names[(int) value] = text;
+        }
+
+        @Override
+        String getText(int row) {
+            int value = values[row];
+            return value < names.length ? names[value] : null;
+        }
+
+        @Override
+        int countWhere(int size, IntPredicate test) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (test.test(values[i])) count++;
+            }
+            return count;
+        }
+
+        @Override
+        int countEqual(int size, String value) {
+            int wanted = Arrays.asList(names).indexOf(value);
+            if (wanted < 0) return 0;
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (values[i] == wanted) count++;
+            }
+            return count;
+        }
+
+        @Override
+        void fill(int size, int value) {
+            check(value);
+            Arrays.fill(values, 0, size, (byte) value);
+        }
+
+        private static void check(long value) {
+            if (value < 0 || value > Byte.MAX_VALUE) throw new IllegalArgumentException("Not an enum ordinal: " + value);
+        }
+    }
+
+    // Keeps a view's row up to date with the changes made through the view
+    private static final class WriteBack implements Observer {
+        private final Table table;
+        private final int row;
+
+        WriteBack(Table table, int row) {
+            this.table = table;
+            this.row = row;
+        }
+
+        @Override
+        public void update(String message) {
+        }
+
+        @Override
+        public void onEvent(HomeEvent event) {
+            if (!(event instanceof DeviceEvent)) return;
+            for (DeviceEvent change : ((DeviceEvent) event).getChanges()) {
+                table.write(row, change);
+            }
+        }
+    }
+}
\ No newline at end of file
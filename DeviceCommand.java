@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A scheduled action compiled once from text like "turn on" or "set brightness 75".
+// Executing one does no parsing and allocates nothing, and bad actions are rejected
+// by compile() instead of being silently ignored when the task fires.
+public abstract class DeviceCommand {
+    public static final DeviceCommand TURN_ON = new DeviceCommand("turn on", Device.class) {
+        @Override
+        public void execute(Device device) { device.turnOn(); }
+    };
+    public static final DeviceCommand TURN_OFF = new DeviceCommand("turn off", Device.class) {
+        @Override
+        public void execute(Device device) { device.turnOff(); }
+    };
+    public static final DeviceCommand TOGGLE = new DeviceCommand("toggle", Device.class) {
+        @Override
+        public void execute(Device device) { device.toggle(); }
+    };
+
+    private final String text;
+    private final Class<? extends Device> targetType;
+
+    protected DeviceCommand(String text, Class<? extends Device> targetType) {
+        this.text = text;
+        this.targetType = targetType;
+    }
+
+    public abstract void execute(Device device);
+
+    public Class<? extends Device> getTargetType() { return targetType; }
+
+    public boolean appliesTo(Device device) {
+        return targetType.isInstance(device);
+    }
+
+    public static DeviceCommand compile(String action) {
+        if (action == null) {
+            throw new IllegalArgumentException("No action given");
+        }
+        String normalized = action.trim().toLowerCase(Locale.ROOT);
+        switch (normalized) {
+            case "turn on":
+            case "on":
+                return TURN_ON;
+            case "turn off":
+            case "off":
+                return TURN_OFF;
+            case "toggle":
+                return TOGGLE;
+            default:
+                break;
+        }
+
+        // Actions like "set brightness 75", "set mode cool" or "set location Back Door",
+        // for any property a device type registers
+        String[] parts = action.trim().split("\\s+", 3);
+        if (parts.length != 3 || !"set".equalsIgnoreCase(parts[0])) {
+            throw new IllegalArgumentException("Unknown action: " + action);
+        }
+        List<DeviceProperty<?>> named = DeviceProperty.named(parts[1]);
+        if (named.isEmpty()) {
+            throw new IllegalArgumentException("Unknown setting in action: " + action);
+        }
+        // Several types can have the property ("mode"); keep those the value suits
+        List<DeviceProperty<?>> properties = new ArrayList<>();
+        List<Integer> values = new ArrayList<>();
+        IllegalArgumentException rejected = null;
+        for (DeviceProperty<?> property : named) {
+            if (!property.isWritable()) continue;
+            try {
+                values.add(property.getKind() == DeviceEvent.ValueKind.TEXT ? 0 : property.parse(parts[2]));
+                properties.add(property);
+            } catch (IllegalArgumentException e) {
+                rejected = e;
+            }
+        }
+        if (properties.isEmpty()) {
+            String reason = rejected != null ? rejected.getMessage() : parts[1] + " can't be changed";
+            throw new IllegalArgumentException(reason + " in action: " + action);
+        }
+        return new SetProperty(parts[1].toLowerCase(Locale.ROOT), parts[2], properties, values);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    // Sets one property to a value worked out when the action was compiled
+    private static final class SetProperty extends DeviceCommand {
+        private final String name;
+        private final DeviceProperty<?>[] properties;
+        private final int[] values;
+        private final String text;
+        private final Map<Class<?>, Integer> indexes = new ConcurrentHashMap<>(); // Device class -> indexFor
+
+        SetProperty(String name, String value, List<DeviceProperty<?>> properties, List<Integer> values) {
+            super("set " + name + " " + value, targetOf(properties));
+            this.name = name;
+            this.properties = properties.toArray(new DeviceProperty<?>[0]);
+            this.values = values.stream().mapToInt(Integer::intValue).toArray();
+            this.text = value;
+        }
+
+        private static Class<? extends Device> targetOf(List<DeviceProperty<?>> properties) {
+            return properties.size() == 1 ? properties.get(0).getOwner() : Device.class;
+        }
+
+        // The device's own property of that name, which may override an inherited one
+        // that also applies; -1 if it isn't one the value was compiled for. Worked out
+        // once per device class.
+        private int indexFor(Device device) {
+            Integer index = indexes.get(device.getClass());
+            if (index == null) {
+                index = resolveIndex(device.getClass());
+                indexes.put(device.getClass(), index);
+            }
+            return index;
+        }
+
+        private int resolveIndex(Class<? extends Device> type) {
+            DeviceProperty<?> property = DeviceProperty.find(type, name);
+            for (int i = 0; i < properties.length; i++) {
+                if (properties[i] == property) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean appliesTo(Device device) {
+            return indexFor(device) >= 0;
+        }
+
+        @Override
+        public void execute(Device device) {
+            int i = indexFor(device);
+            if (i < 0) return;
+            if (properties[i].getKind() == DeviceEvent.ValueKind.TEXT) {
+                properties[i].setText(device, text);
+            } else {
+                properties[i].setInt(device, values[i]);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,221 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+// A property change on a device. Numbers and flags are kept as primitives and text
+// values by reference, so creating one costs no formatting. Changes made inside a
+// Device update scope arrive as one compound event: its own fields describe the first
+// change and getChanges() lists all of them.
+public class DeviceEvent extends HomeEvent {
+    // Property names used by the built-in devices
+    public static final String POWER = "power";
+    public static final String NAME = "name";
+    public static final String BRIGHTNESS = "brightness";
+    public static final String COLOR = "color";
+    public static final String SPEED = "speed";
+    public static final String OSCILLATING = "oscillating";
+    public static final String TEMPERATURE = "temperature";
+    public static final String MODE = "mode";
+    public static final String TARGET_TEMPERATURE = "targetTemperature";
+    public static final String CURRENT_TEMPERATURE = "currentTemperature";
+    public static final String LOCKED = "locked";
+    public static final String LOCATION = "location";
+    public static final String RECORDING = "recording";
+    public static final String RESOLUTION = "resolution";
+    // Journal-only markers: a device joined (compound with its full state) or left the controller
+    public static final String ADDED = "added";
+    public static final String REMOVED = "removed";
+
+    // CHOICE is one of an enum's constants: the value is its ordinal, the text its name.
+    // Kinds are stored in the journal: only ever append to this list.
+    public enum ValueKind { BOOLEAN, INT, TEXT, CHOICE }
+
+    private final long deviceKey;
+    private final long deviceIdHigh;
+    private final long deviceIdLow;
+    private String deviceId; // UUID text, made when first asked for
+    private final String deviceName;
+    private final Class<? extends Device> deviceType;
+    private final String property;
+    private final ValueKind kind;
+    private final long oldValue;
+    private final long newValue;
+    private final String oldText;
+    private final String newText;
+    private final DeviceEvent[] changes; // null for a single change
+
+    private DeviceEvent(Device device, String property, ValueKind kind,
+                        long oldValue, long newValue, String oldText, String newText) {
+        super(System.currentTimeMillis());
+        this.deviceKey = device.getKey();
+        this.deviceIdHigh = device.getIdHigh();
+        this.deviceIdLow = device.getIdLow();
+        this.deviceName = device.getName();
+        this.deviceType = device.getClass();
+        this.property = property;
+        this.kind = kind;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+        this.oldText = oldText;
+        this.newText = newText;
+        this.changes = null;
+    }
+
+    // Same device and property as the template, with different values
+    private DeviceEvent(DeviceEvent template, long oldValue, long newValue, String oldText, String newText) {
+        super(template.getTimestamp());
+        this.deviceKey = template.deviceKey;
+        this.deviceIdHigh = template.deviceIdHigh;
+        this.deviceIdLow = template.deviceIdLow;
+        this.deviceName = template.deviceName;
+        this.deviceType = template.deviceType;
+        this.property = template.property;
+        this.kind = template.kind;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+        this.oldText = oldText;
+        this.newText = newText;
+        this.changes = null;
+    }
+
+    private DeviceEvent(DeviceEvent first, DeviceEvent[] changes) {
+        super(first.getTimestamp());
+        this.deviceKey = first.deviceKey;
+        this.deviceIdHigh = first.deviceIdHigh;
+        this.deviceIdLow = first.deviceIdLow;
+        this.deviceName = first.deviceName;
+        this.deviceType = first.deviceType;
+        this.property = first.property;
+        this.kind = first.kind;
+        this.oldValue = first.oldValue;
+        this.newValue = first.newValue;
+        this.oldText = first.oldText;
+        this.newText = first.newText;
+        this.changes = changes;
+    }
+
+    public static DeviceEvent ofBoolean(Device device, String property, boolean oldValue, boolean newValue) {
+        return new DeviceEvent(device, property, ValueKind.BOOLEAN, oldValue ? 1 : 0, newValue ? 1 : 0, null, null);
+    }
+
+    public static DeviceEvent ofInt(Device device, String property, int oldValue, int newValue) {
+        return new DeviceEvent(device, property, ValueKind.INT, oldValue, newValue, null, null);
+    }
+
+    public static DeviceEvent ofText(Device device, String property, String oldValue, String newValue) {
+        return new DeviceEvent(device, property, ValueKind.TEXT, 0, 0, oldValue, newValue);
+    }
+
+    public static DeviceEvent ofChoice(Device device, String property, Enum<?> oldValue, Enum<?> newValue) {
+        return new DeviceEvent(device, property, ValueKind.CHOICE, oldValue.ordinal(), newValue.ordinal(),
+                oldValue.toString(), newValue.toString());
+    }
+
+    // One event for everything changed in an update scope, the list is used as-is
+    static DeviceEvent compound(List<DeviceEvent> changes) {
+        if (changes.size() == 1) return changes.get(0);
+        return new DeviceEvent(changes.get(0), changes.toArray(new DeviceEvent[0]));
+    }
+
+    // Adds a change to a list that keeps one entry per property, from its first old value
+    // to its latest new value. A property that ends up where it started drops out.
+    static void fold(List<DeviceEvent> changes, DeviceEvent change) {
+        for (int i = 0; i < changes.size(); i++) {
+            DeviceEvent earlier = changes.get(i);
+            if (earlier.property.equals(change.property)) {
+                DeviceEvent merged = merge(earlier, change);
+                if (merged == null) {
+                    changes.remove(i);
+                } else {
+                    changes.set(i, merged);
+                }
+                return;
+            }
+        }
+        changes.add(change);
+    }
+
+    // Folds a later event for the same device into an earlier one, or null if nothing is left
+    static DeviceEvent combine(DeviceEvent earlier, DeviceEvent later) {
+        List<DeviceEvent> changes = new ArrayList<>(Arrays.asList(earlier.getChanges()));
+        for (DeviceEvent change : later.getChanges()) {
+            fold(changes, change);
+        }
+        return changes.isEmpty() ? null : compound(changes);
+    }
+
+    private static DeviceEvent merge(DeviceEvent earlier, DeviceEvent later) {
+        if (earlier.kind == ValueKind.TEXT) {
+            if (Objects.equals(earlier.oldText, later.newText)) return null;
+            return new DeviceEvent(later, earlier.oldValue, later.newValue, earlier.oldText, later.newText);
+        }
+        if (earlier.oldValue == later.newValue) return null;
+        return new DeviceEvent(later, earlier.oldValue, later.newValue, earlier.oldText, later.newText);
+    }
+
+    // Only made for code that names devices by their UUID; a race just makes it twice
+    public String getDeviceId() {
+        String id = deviceId;
+        if (id == null) deviceId = id = new UUID(deviceIdHigh, deviceIdLow).toString();
+        return id;
+    }
+
+    public long getDeviceKey() { return deviceKey; }
+    public long getDeviceIdHigh() { return deviceIdHigh; }
+    public long getDeviceIdLow() { return deviceIdLow; }
+    public String getDeviceName() { return deviceName; }
+    public Class<? extends Device> getDeviceType() { return deviceType; }
+    public String getProperty() { return property; }
+    public ValueKind getKind() { return kind; }
+    public long getOldValue() { return oldValue; }
+    public long getNewValue() { return newValue; }
+    public String getOldText() { return oldText; }
+    public String getNewText() { return newText; }
+    public boolean isCompound() { return changes != null; }
+
+    public DeviceEvent[] getChanges() {
+        return changes != null ? changes.clone() : new DeviceEvent[] { this };
+    }
+
+    public boolean hasProperty(String name) {
+        if (changes == null) return property.equals(name);
+        for (DeviceEvent change : changes) {
+            if (change.property.equals(name)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected String render() {
+        StringBuilder sb = new StringBuilder("Device Update: ").append(deviceName).append(": ");
+        if (changes == null) {
+            appendChange(sb);
+        } else {
+            for (int i = 0; i < changes.length; i++) {
+                if (i > 0) sb.append(", ");
+                changes[i].appendChange(sb);
+            }
+        }
+        return sb.toString();
+    }
+
+    private void appendChange(StringBuilder sb) {
+        sb.append(property).append(' ')
+          .append(format(oldValue, oldText)).append(" -> ").append(format(newValue, newText));
+    }
+
+    private String format(long value, String text) {
+        switch (kind) {
+            case BOOLEAN:
+                if (POWER.equals(property)) return value != 0 ? "ON" : "OFF";
+                if (LOCKED.equals(property)) return value != 0 ? "LOCKED" : "UNLOCKED";
+                return value != 0 ? "YES" : "NO";
+            case INT:
+                return Long.toString(value);
+            default:
+                return text;
+        }
+    }
+}
\ No newline at end of file
@@ -1,74 +1,276 @@
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
+// Saves devices and tasks in a compact binary format (see DeviceCodec and TaskCodec).
+// Files start with a magic number and format version; files written by older versions
+// with Java serialization are still read, as long as the device and task classes keep
+// the serialVersionUID those versions wrote. Saving takes the current device and task
+// lists and writes them on a background thread with Checkpointer, so the files are
+// replaced atomically and the caller never waits for the disk. With a change log open,
+// changes are autosaved as they happen and saving only makes sure they are on disk.
+//
+// From format 2 devices are stored in chunks (see DeviceCodec.writeChunked) that are
+// decoded in parallel on load, and loaded devices are registered in one bulk insert.
 public class DevicePersistenceManager {
     private static final String DEVICE_FILE = "smart_home_devices.dat";
     private static final String TASK_FILE = "smart_home_tasks.dat";
+    private static final String CHANGE_LOG_DIR = "smart_home_data";
+    private static final int DEVICE_MAGIC = 0x53484456; // "SHDV"
+    private static final int TASK_MAGIC = 0x53485453;   // "SHTS"
+    private static final int FORMAT_VERSION = 2;
+    private static final short SERIALIZATION_MAGIC = (short) 0xACED; // Start of an ObjectOutputStream
+    private static final Checkpointer checkpointer = new Checkpointer("save-checkpoint");
+    private static final Set<Path> unreadable = ConcurrentHashMap.newKeySet(); // Saved files that failed to load
     
-    public static void saveDevices() {
+    // Returns at once; the future completes when both files are on disk
+    public static CompletableFuture<Void> saveDevices() {
         SmartHomeController controller = SmartHomeController.getInstance();
-        List<Device> devices = controller.getDevices();
-        List<ScheduledTask> tasks = controller.getScheduledTasks();
-        
-        try {
-            // Save devices
-            FileOutputStream deviceFos = new FileOutputStream(DEVICE_FILE);
-            ObjectOutputStream deviceOos = new ObjectOutputStream(deviceFos);
-            deviceOos.writeObject(devices);
-            deviceOos.close();
-            
-            // Save tasks
-            FileOutputStream taskFos = new FileOutputStream(TASK_FILE);
-            ObjectOutputStream taskOos = new ObjectOutputStream(taskFos);
-            taskOos.writeObject(tasks);
-            taskOos.close();
-            
-            System.out.println("Devices and tasks saved successfully.");
-        } catch (IOException e) {
-            System.err.println("Error saving devices: " + e.getMessage());
+        WriteAheadLog changeLog = controller.getChangeLog();
+        CompletableFuture<Void> saved;
+        if (changeLog != null) {
+            saved = changeLog.requestSync(); // Only what changed since the last commit is written
+        } else {
+            try {
+                keepUnreadable();
+                // The registries hand out immutable lists, so these stay as they are now
+                saved = writeFiles(controller.getDevices(), controller.getScheduledTasks());
+            } catch (IOException e) {
+                saved = CompletableFuture.failedFuture(e);
+            }
         }
+        
+        return saved.whenComplete((ignored, error) -> {
+            if (error == null) {
+                System.out.println("Devices and tasks saved successfully.");
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                System.err.println("Error saving devices: " + cause.getMessage());
+            }
+        });
     }
     
-    @SuppressWarnings("unchecked")
-    public static void loadDevices() {
+    private static CompletableFuture<Void> writeFiles(List<Device> devices, List<ScheduledTask> tasks) {
+        CompletableFuture<Void> devicesSaved = checkpointer.submit(Paths.get(DEVICE_FILE), out -> {
+            writeHeader(out, DEVICE_MAGIC, devices.size());
+            DeviceCodec.writeChunked(devices, out);
+        });
+        CompletableFuture<Void> tasksSaved = checkpointer.submit(Paths.get(TASK_FILE), out -> {
+            writeHeader(out, TASK_MAGIC, tasks.size());
+            for (ScheduledTask task : tasks) {
+                TaskCodec.write(task, out);
+            }
+        });
+        return CompletableFuture.allOf(devicesSaved, tasksSaved);
+    }
+    
+    // Returns false when a saved file exists but could not be read
+    public static boolean loadDevices() {
         SmartHomeController controller = SmartHomeController.getInstance();
+        boolean complete = true;
         
         // Load devices
         try {
-            FileInputStream deviceFis = new FileInputStream(DEVICE_FILE);
-            ObjectInputStream deviceOis = new ObjectInputStream(deviceFis);
-            List<Device> loadedDevices = (List<Device>) deviceOis.readObject();
-            deviceOis.close();
-            
-            // Clear existing devices and add loaded ones
-            for (Device device : loadedDevices) {
-                controller.addDevice(device);
-            }
+            List<Device> loadedDevices = readDevices(Paths.get(DEVICE_FILE));
+            controller.addDevices(loadedDevices);
             
             System.out.println("Devices loaded successfully: " + loadedDevices.size() + " devices.");
-        } catch (FileNotFoundException e) {
+        } catch (FileNotFoundException | NoSuchFileException e) {
             System.out.println("No saved devices found.");
         } catch (IOException | ClassNotFoundException e) {
             System.err.println("Error loading devices: " + e.getMessage());
+            unreadable.add(Paths.get(DEVICE_FILE));
+            complete = false;
         }
         
         // Load tasks
         try {
-            FileInputStream taskFis = new FileInputStream(TASK_FILE);
-            ObjectInputStream taskOis = new ObjectInputStream(taskFis);
-            List<ScheduledTask> loadedTasks = (List<ScheduledTask>) taskOis.readObject();
-            taskOis.close();
+            List<ScheduledTask> loadedTasks = readTasks(Paths.get(TASK_FILE));
             
-            // Add loaded tasks
+            // Add loaded tasks, skipping any whose action no longer compiles
             for (ScheduledTask task : loadedTasks) {
-                controller.addScheduledTask(task);
+                try {
+                    controller.addScheduledTask(task);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping invalid task: " + e.getMessage());
+                }
             }
             
             System.out.println("Tasks loaded successfully: " + loadedTasks.size() + " tasks.");
-        } catch (FileNotFoundException e) {
+        } catch (FileNotFoundException | NoSuchFileException e) {
             System.out.println("No saved tasks found.");
         } catch (IOException | ClassNotFoundException e) {
             System.err.println("Error loading tasks: " + e.getMessage());
+            unreadable.add(Paths.get(TASK_FILE));
+            complete = false;
+        }
+        return complete;
+    }
+    
+    // A saved file that failed to load is renamed, never overwritten, before the first
+    // save after it, so whatever it holds can still be recovered by hand
+    private static synchronized void keepUnreadable() throws IOException {
+        for (Path path : unreadable) {
+            if (Files.exists(path)) {
+                Path kept = path.resolveSibling(path.getFileName() + ".unreadable");
+                for (int n = 1; Files.exists(kept); n++) {
+                    kept = path.resolveSibling(path.getFileName() + ".unreadable." + n);
+                }
+                Files.move(path, kept, StandardCopyOption.ATOMIC_MOVE);
+                System.err.println("Kept " + path + ", which could not be loaded, as " + kept);
+            }
+            unreadable.remove(path);
+        }
+    }
+    
+    // Replaces the current devices and tasks with the saved ones. Files are read and
+    // decoded on a background thread and the result goes in with one replaceState() call,
+    // so the current state stays in use until the saved one is complete. With a change
+    // log open, the saved state is what the log holds. Fails without touching anything
+    // when there is no saved data.
+    public static CompletableFuture<Void> reloadDevices() {
+        SmartHomeController controller = SmartHomeController.getInstance();
+        return CompletableFuture.runAsync(() -> {
+            List<Device> devices;
+            List<ScheduledTask> tasks;
+            try {
+                WriteAheadLog changeLog = controller.getChangeLog();
+                if (changeLog != null) {
+                    WriteAheadLog.SavedState saved = changeLog.readSaved();
+                    devices = saved.getDevices();
+                    tasks = saved.getTasks();
+                } else {
+                    devices = readDevices(Paths.get(DEVICE_FILE));
+                    tasks = Files.exists(Paths.get(TASK_FILE)) ? readTasks(Paths.get(TASK_FILE)) : new ArrayList<>();
+                }
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                throw new CompletionException(new IOException("No saved devices found", e));
+            } catch (IOException | ClassNotFoundException e) {
+                throw new CompletionException(e);
+            }
+            controller.replaceState(devices, tasks);
+            unreadable.clear();
+            System.out.println("Reloaded " + devices.size() + " devices and " + tasks.size() + " tasks.");
+        });
+    }
+    
+    public static void openChangeLog() {
+        openChangeLog(Paths.get(CHANGE_LOG_DIR));
+    }
+    
+    // Restores the state saved in the change log and logs every change from then on.
+    // The first time, whatever is in the old .dat files is imported. If they can't be
+    // read the log is closed still empty, so the import is tried again at the next start.
+    public static void openChangeLog(Path directory) {
+        SmartHomeController controller = SmartHomeController.getInstance();
+        WriteAheadLog changeLog;
+        try {
+            changeLog = new WriteAheadLog(directory);
+            changeLog.setAutosave(Long.getLong("smarthome.autosaveMillis", WriteAheadLog.DEFAULT_COMMIT_MILLIS),
+                    Long.getLong("smarthome.autosaveMaxDelayMillis", WriteAheadLog.DEFAULT_MAX_DELAY_MILLIS));
+        } catch (IOException e) {
+            System.err.println("Error opening change log: " + e.getMessage());
+            loadDevices();
+            return;
+        }
+        
+        if (changeLog.isEmpty()) {
+            if (!loadDevices()) {
+                System.err.println("Change log not started, the saved files were not imported");
+                try {
+                    changeLog.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing change log: " + e.getMessage());
+                }
+                return;
+            }
+            controller.attachChangeLog(changeLog);
+            changeLog.compact();
+            return;
+        }
+        
+        // Added before the log is attached, so recovery doesn't write everything back
+        List<Device> devices = changeLog.getRecoveredDevices();
+        controller.addDevices(devices);
+        List<ScheduledTask> tasks = changeLog.getRecoveredTasks();
+        for (ScheduledTask task : tasks) {
+            try {
+                controller.addScheduledTask(task);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping invalid task: " + e.getMessage());
+            }
+        }
+        controller.attachChangeLog(changeLog);
+        System.out.println("Recovered " + devices.size() + " devices and " + tasks.size() + " tasks.");
+    }
+    
+    @SuppressWarnings("unchecked")
+    static List<Device> readDevices(Path path) throws IOException, ClassNotFoundException {
+        if (isSerialized(path)) return (List<Device>) readSerialized(path);
+        try (BinaryReader in = BinaryReader.open(path)) {
+            int version = readHeader(in, DEVICE_MAGIC, path);
+            int count = in.readInt();
+            if (version >= 2) return DeviceCodec.readChunked(in, count);
+            List<Device> devices = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                devices.add(DeviceCodec.read(in));
+            }
+            return devices;
+        }
+    }
+    
+    // Tasks whose action no longer compiles are left out
+    @SuppressWarnings("unchecked")
+    static List<ScheduledTask> readTasks(Path path) throws IOException, ClassNotFoundException {
+        if (isSerialized(path)) return (List<ScheduledTask>) readSerialized(path);
+        try (BinaryReader in = BinaryReader.open(path)) {
+            readHeader(in, TASK_MAGIC, path);
+            int count = in.readInt();
+            List<ScheduledTask> tasks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                try {
+                    tasks.add(TaskCodec.read(in));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping invalid task: " + e.getMessage());
+                }
+            }
+            return tasks;
+        }
+    }
+    
+    private static void writeHeader(BinaryWriter out, int magic, int count) throws IOException {
+        out.writeInt(magic);
+        out.writeShort(FORMAT_VERSION);
+        out.writeInt(count);
+    }
+    
+    // Returns the format version; the record count follows
+    private static int readHeader(BinaryReader in, int magic, Path path) throws IOException {
+        if (in.readInt() != magic) throw new IOException(path + " is not a smart home file");
+        int version = in.readShort();
+        if (version > FORMAT_VERSION) throw new IOException(path + " was written by a newer version (format " + version + ")");
+        return version;
+    }
+    
+    private static boolean isSerialized(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            return in.readShort() == SERIALIZATION_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+    
+    // Files saved before the binary format
+    private static Object readSerialized(Path path) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return in.readObject();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,368 @@
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+// A named property of a device type: its kind, the values it accepts and how to read
+// and change it. Commands and the UI use these instead of knowing every device class.
+// The accessors are lambdas made once when the property is registered, so reading or
+// setting one is a direct call, never reflection. Flags, numbers and enum choices are
+// read and set as ints (0/1, the number, the ordinal) without boxing.
+//
+// A type has the properties registered for it and for its superclasses; registering a
+// name again in a subclass replaces the inherited one. Names are matched ignoring case.
+public final class DeviceProperty<T extends Device> {
+    private static final Map<Class<?>, List<DeviceProperty<?>>> DECLARED = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Map<String, DeviceProperty<?>>> RESOLVED = new ConcurrentHashMap<>();
+    private static final List<Class<? extends Device>> TYPES = new CopyOnWriteArrayList<>();
+
+    static {
+        register(ofBoolean(Device.class, DeviceEvent.POWER, Device::isOn, (device, on) -> {
+            if (on) device.turnOn(); else device.turnOff();
+        }));
+        register(ofText(Device.class, DeviceEvent.NAME, Device::getName, Device::setName));
+
+        register(ofInt(Light.class, DeviceEvent.BRIGHTNESS, 0, 100, Light::getBrightness, Light::setBrightness));
+        register(ofChoice(Light.class, DeviceEvent.COLOR, LightColor.class, Light::getColor, Light::setColor));
+
+        register(ofInt(Fan.class, DeviceEvent.SPEED, 1, 5, Fan::getSpeed, Fan::setSpeed));
+        register(ofBoolean(Fan.class, DeviceEvent.OSCILLATING, Fan::isOscillating, (fan, on) -> {
+            if (fan.isOscillating() != on) fan.toggleOscillation();
+        }));
+
+        register(ofInt(AirConditioner.class, DeviceEvent.TEMPERATURE, 16, 30,
+                AirConditioner::getTemperature, AirConditioner::setTemperature));
+        register(ofChoice(AirConditioner.class, DeviceEvent.MODE, AirConditionerMode.class,
+                AirConditioner::getMode, AirConditioner::setMode));
+
+        register(ofInt(Thermostat.class, DeviceEvent.TARGET_TEMPERATURE, 10, 35,
+                Thermostat::getTargetTemperature, Thermostat::setTargetTemperature));
+        register(ofInt(Thermostat.class, DeviceEvent.CURRENT_TEMPERATURE, -10, 50,
+                Thermostat::getCurrentTemperature, Thermostat::setCurrentTemperature));
+        register(ofChoice(Thermostat.class, DeviceEvent.MODE, ThermostatMode.class,
+                Thermostat::getMode, Thermostat::setMode));
+        // A thermostat is on whenever its mode isn't off, it never sets the on flag
+        register(ofBoolean(Thermostat.class, DeviceEvent.POWER, thermostat -> thermostat.getMode() != ThermostatMode.OFF,
+                (thermostat, on) -> {
+                    if (on) thermostat.turnOn(); else thermostat.turnOff();
+                }));
+
+        register(ofBoolean(DoorLock.class, DeviceEvent.LOCKED, DoorLock::isLocked, (lock, locked) -> {
+            if (locked) lock.turnOn(); else lock.turnOff();
+        }));
+        register(ofText(DoorLock.class, DeviceEvent.LOCATION, DoorLock::getLocation, DoorLock::setLocation));
+        // Always on; turnOn and turnOff lock and unlock, which is what locked is for
+        register(ofBoolean(DoorLock.class, DeviceEvent.POWER, DoorLock::isOn, null));
+
+        register(ofBoolean(SecurityCamera.class, DeviceEvent.RECORDING, SecurityCamera::isRecording, (camera, on) -> {
+            if (on) camera.turnOn(); // A camera only records while it's on
+            if (camera.isRecording() != on) camera.toggleRecording();
+        }));
+        register(ofInt(SecurityCamera.class, DeviceEvent.RESOLUTION, new int[] {720, 1080, 2160},
+                SecurityCamera::getResolution, SecurityCamera::setResolution));
+        register(ofText(SecurityCamera.class, DeviceEvent.LOCATION, SecurityCamera::getLocation, SecurityCamera::setLocation));
+    }
+
+    private final Class<T> owner;
+    private final String name;
+    private final String label;
+    private final DeviceEvent.ValueKind kind;
+    private final int min;
+    private final int max;
+    private final int[] allowed;   // Numbers: the only valid values, null = all from min to max
+    private final Object[] choices; // Choices: the enum constants by ordinal
+    private final ToIntFunction<T> intGetter;
+    private final ObjIntConsumer<T> intSetter; // null when read-only
+    private final Function<T, String> textGetter;
+    private final BiConsumer<T, String> textSetter; // null when read-only
+
+    private DeviceProperty(Class<T> owner, String name, DeviceEvent.ValueKind kind, int min, int max,
+                           int[] allowed, Object[] choices, ToIntFunction<T> intGetter, ObjIntConsumer<T> intSetter,
+                           Function<T, String> textGetter, BiConsumer<T, String> textSetter) {
+        this.owner = owner;
+        this.name = name;
+        this.label = labelOf(name);
+        this.kind = kind;
+        this.min = min;
+        this.max = max;
+        this.allowed = allowed;
+        this.choices = choices;
+        this.intGetter = intGetter;
+        this.intSetter = intSetter;
+        this.textGetter = textGetter;
+        this.textSetter = textSetter;
+    }
+
+    // A null setter makes the property read-only in all of these
+
+    public static <T extends Device> DeviceProperty<T> ofBoolean(Class<T> owner, String name,
+                                                                 Predicate<T> getter, BiConsumer<T, Boolean> setter) {
+        return new DeviceProperty<>(owner, name, DeviceEvent.ValueKind.BOOLEAN, 0, 1, null, null,
+                device -> getter.test(device) ? 1 : 0,
+                setter == null ? null : (device, value) -> setter.accept(device, value != 0),
+                null, null);
+    }
+
+    public static <T extends Device> DeviceProperty<T> ofInt(Class<T> owner, String name, int min, int max,
+                                                             ToIntFunction<T> getter, ObjIntConsumer<T> setter) {
+        if (min > max) throw new IllegalArgumentException("Empty range " + min + "-" + max);
+        return new DeviceProperty<>(owner, name, DeviceEvent.ValueKind.INT, min, max, null, null,
+                getter, setter, null, null);
+    }
+
+    // A number that only takes the listed values, e.g. camera resolutions
+    public static <T extends Device> DeviceProperty<T> ofInt(Class<T> owner, String name, int[] values,
+                                                             ToIntFunction<T> getter, ObjIntConsumer<T> setter) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        if (sorted.length == 0) throw new IllegalArgumentException("No values for " + name);
+        return new DeviceProperty<>(owner, name, DeviceEvent.ValueKind.INT, sorted[0], sorted[sorted.length - 1],
+                sorted, null, getter, setter, null, null);
+    }
+
+    public static <T extends Device, E extends Enum<E>> DeviceProperty<T> ofChoice(Class<T> owner, String name, Class<E> type,
+                                                                                   Function<T, E> getter, BiConsumer<T, E> setter) {
+        E[] values = type.getEnumConstants();
+        return new DeviceProperty<>(owner, name, DeviceEvent.ValueKind.CHOICE, 0, values.length - 1, null, values,
+                device -> getter.apply(device).ordinal(),
+                setter == null ? null : (device, value) -> setter.accept(device, values[value]),
+                null, null);
+    }
+
+    public static <T extends Device> DeviceProperty<T> ofText(Class<T> owner, String name,
+                                                              Function<T, String> getter, BiConsumer<T, String> setter) {
+        return new DeviceProperty<>(owner, name, DeviceEvent.ValueKind.TEXT, 0, 0, null, null,
+                null, null, getter, setter);
+    }
+
+    // Adds the property to its owner type and the owner's subclasses. Synchronized with
+    // resolving, so a lookup never caches a view from before the registration.
+    public static synchronized void register(DeviceProperty<?> property) {
+        DECLARED.computeIfAbsent(property.owner, type -> new CopyOnWriteArrayList<>()).add(property);
+        RESOLVED.clear();
+        if (!Modifier.isAbstract(property.owner.getModifiers()) && !TYPES.contains(property.owner)) {
+            TYPES.add(property.owner);
+        }
+    }
+
+    // Concrete device types with properties of their own, in the order first registered
+    public static List<Class<? extends Device>> types() {
+        return new ArrayList<>(TYPES);
+    }
+
+    // Everything the type has, inherited properties first
+    public static List<DeviceProperty<?>> of(Class<? extends Device> type) {
+        return new ArrayList<>(resolve(type).values());
+    }
+
+    // Null if the type has no property of that name
+    public static DeviceProperty<?> find(Class<? extends Device> type, String name) {
+        return resolve(type).get(name.toLowerCase(Locale.ROOT));
+    }
+
+    // Every registered property of that name, whatever type declares it
+    public static List<DeviceProperty<?>> named(String name) {
+        List<DeviceProperty<?>> found = new ArrayList<>();
+        for (List<DeviceProperty<?>> declared : DECLARED.values()) {
+            for (DeviceProperty<?> property : declared) {
+                if (property.name.equalsIgnoreCase(name)) found.add(property);
+            }
+        }
+        return found;
+    }
+
+    private static Map<String, DeviceProperty<?>> resolve(Class<?> type) {
+        Map<String, DeviceProperty<?>> resolved = RESOLVED.get(type);
+        return resolved != null ? resolved : resolveLocked(type);
+    }
+
+    private static synchronized Map<String, DeviceProperty<?>> resolveLocked(Class<?> type) {
+        Map<String, DeviceProperty<?>> resolved = RESOLVED.get(type);
+        if (resolved != null) return resolved;
+
+        Deque<Class<?>> lineage = new ArrayDeque<>();
+        for (Class<?> c = type; c != null && Device.class.isAssignableFrom(c); c = c.getSuperclass()) {
+            lineage.push(c);
+        }
+        resolved = new LinkedHashMap<>();
+        for (Class<?> c : lineage) {
+            for (DeviceProperty<?> property : DECLARED.getOrDefault(c, Collections.emptyList())) {
+                String key = property.name.toLowerCase(Locale.ROOT);
+                resolved.remove(key); // A redefinition takes the place of the inherited one
+                resolved.put(key, property);
+            }
+        }
+        resolved = Collections.unmodifiableMap(resolved);
+        RESOLVED.put(type, resolved);
+        return resolved;
+    }
+
+    public Class<T> getOwner() { return owner; }
+    public String getName() { return name; }
+    public DeviceEvent.ValueKind getKind() { return kind; }
+    public int getMin() { return min; }
+    public int getMax() { return max; }
+    public boolean isWritable() { return intSetter != null || textSetter != null; }
+
+    // "targetTemperature" -> "Target temperature"
+    public String getLabel() { return label; }
+
+    // The only valid numbers, or null when any number from min to max is
+    public int[] getAllowedValues() {
+        return allowed == null ? null : allowed.clone();
+    }
+
+    // The enum constants of a choice by ordinal, null for other kinds
+    public Object[] getChoices() {
+        return choices == null ? null : choices.clone();
+    }
+
+    public boolean appliesTo(Device device) {
+        return owner.isInstance(device);
+    }
+
+    // Flags as 0 or 1, choices as their ordinal
+    public int getInt(Device device) {
+        if (intGetter == null) throw new IllegalArgumentException(name + " is not a number");
+        return intGetter.applyAsInt(owner.cast(device));
+    }
+
+    // Throws IllegalArgumentException if the value isn't valid or the property is read-only
+    public void setInt(Device device, int value) {
+        if (intGetter == null) throw new IllegalArgumentException(name + " is not a number");
+        if (intSetter == null) throw new IllegalArgumentException(name + " is read-only");
+        check(value);
+        intSetter.accept(owner.cast(device), value);
+    }
+
+    // Any kind as text: "true"/"false", the number, the choice's name or the text itself
+    public String getText(Device device) {
+        switch (kind) {
+            case BOOLEAN: return getInt(device) != 0 ? "true" : "false";
+            case INT: return Integer.toString(getInt(device));
+            case CHOICE: return choices[getInt(device)].toString();
+            default: return textGetter.apply(owner.cast(device));
+        }
+    }
+
+    public void setText(Device device, String text) {
+        if (kind != DeviceEvent.ValueKind.TEXT) {
+            setInt(device, parse(text));
+            return;
+        }
+        if (textSetter == null) throw new IllegalArgumentException(name + " is read-only");
+        textSetter.accept(owner.cast(device), text);
+    }
+
+    // Boolean, Integer, the enum constant or String, for code that works with objects like the UI
+    public Object getValue(Device device) {
+        switch (kind) {
+            case BOOLEAN: return getInt(device) != 0;
+            case INT: return getInt(device);
+            case CHOICE: return choices[getInt(device)];
+            default: return textGetter.apply(owner.cast(device));
+        }
+    }
+
+    // Throws IllegalArgumentException if setValue() would reject the value; changes nothing
+    public void checkValue(Object value) {
+        if (!isWritable()) throw new IllegalArgumentException(name + " is read-only");
+        switch (kind) {
+            case BOOLEAN:
+                if (!(value instanceof Boolean)) throw new IllegalArgumentException("Expected on or off for " + name + ": " + value);
+                break;
+            case INT:
+                if (!(value instanceof Integer)) throw new IllegalArgumentException("Invalid number for " + name + ": " + value);
+                check((Integer) value);
+                break;
+            case CHOICE:
+                ordinalOf(value);
+                break;
+            default:
+                if (!(value instanceof String)) throw new IllegalArgumentException("Expected text for " + name + ": " + value);
+                break;
+        }
+    }
+
+    public void setValue(Device device, Object value) {
+        checkValue(value);
+        switch (kind) {
+            case BOOLEAN: setInt(device, (Boolean) value ? 1 : 0); break;
+            case INT: setInt(device, (Integer) value); break;
+            case CHOICE: setInt(device, ordinalOf(value)); break;
+            default: setText(device, (String) value); break;
+        }
+    }
+
+    // Text to the int setInt() takes: on/off, yes/no or true/false for flags, a number,
+    // or a choice's name. Throws IllegalArgumentException for anything else.
+    public int parse(String text) {
+        String value = text.trim();
+        switch (kind) {
+            case BOOLEAN:
+                switch (value.toLowerCase(Locale.ROOT)) {
+                    case "on": case "yes": case "true": case "1": return 1;
+                    case "off": case "no": case "false": case "0": return 0;
+                    default: throw new IllegalArgumentException("Expected on or off for " + name + ": " + text);
+                }
+            case INT:
+                int number;
+                try {
+                    number = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid number for " + name + ": " + text);
+                }
+                check(number);
+                return number;
+            case CHOICE:
+                for (int i = 0; i < choices.length; i++) {
+                    if (choices[i].toString().equalsIgnoreCase(value)) return i;
+                }
+                throw new IllegalArgumentException("Unknown " + name + ": " + text);
+            default:
+                throw new IllegalArgumentException(name + " is text");
+        }
+    }
+
+    private void check(int value) {
+        if (allowed != null) {
+            if (Arrays.binarySearch(allowed, value) < 0) {
+                throw new IllegalArgumentException("Value must be one of " + Arrays.toString(allowed) + " for " + name);
+            }
+        } else if (value < min || value > max) {
+            throw new IllegalArgumentException("Value out of range " + min + "-" + max + " for " + name);
+        }
+    }
+
+    private int ordinalOf(Object value) {
+        for (int i = 0; i < choices.length; i++) {
+            if (choices[i] == value) return i;
+        }
+        throw new IllegalArgumentException("Not a " + name + ": " + value);
+    }
+
+    private static String labelOf(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 4);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (i == 0) {
+                sb.append(Character.toUpperCase(c));
+            } else if (Character.isUpperCase(c)) {
+                sb.append(' ').append(Character.toLowerCase(c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return owner.getSimpleName() + "." + name;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,190 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Safe for the Timer thread, the EDT and the persistence code to use at the same time.
+// Writes only lock the hash bins they touch and iteration never throws
+// ConcurrentModificationException.
+public class DeviceRegistry {
+    private final AtomicLong sequence;
+    private final AtomicLong version; // Bumped on every add, remove or rename
+    private volatile Snapshot<Device> snapshot;
+    private final Map<Long, Device> byKey;
+    private final Map<UUID, Device> byId; // The UUID alias, also keeps a saved device from loading twice
+    private final ConcurrentNavigableMap<Long, Device> ordered; // Insertion order for getDevices()
+    private final Map<String, ConcurrentNavigableMap<Long, Device>> byName;
+    private final Map<Class<?>, ConcurrentNavigableMap<Long, Device>> byType;
+
+    public DeviceRegistry() {
+        sequence = new AtomicLong();
+        version = new AtomicLong();
+        snapshot = new Snapshot<>(0, new ArrayList<>());
+        byKey = new ConcurrentHashMap<>();
+        byId = new ConcurrentHashMap<>();
+        ordered = new ConcurrentSkipListMap<>();
+        byName = new ConcurrentHashMap<>();
+        byType = new ConcurrentHashMap<>();
+    }
+
+    public boolean add(Device device) {
+        if (byId.putIfAbsent(aliasOf(device), device) != null) {
+            return false;
+        }
+        // Only the thread that won the putIfAbsent gets here, so the secondary indexes see each device once
+        byKey.put(device.getKey(), device);
+        long seq = sequence.incrementAndGet();
+        device.registrySeq = seq;
+        device.registry = this;
+        ordered.put(seq, device);
+        index(byName, device.getName(), seq, device);
+        index(byType, device.getClass(), seq, device);
+        version.incrementAndGet();
+        return true;
+    }
+
+    // Registers many devices with a single version change, so readers rebuild their
+    // snapshot once. Returns the ones that weren't registered yet, in the given order.
+    public List<Device> addAll(Collection<? extends Device> devices) {
+        List<Device> added = new ArrayList<>(devices.size());
+        for (Device device : devices) {
+            if (byId.putIfAbsent(aliasOf(device), device) != null) continue;
+            byKey.put(device.getKey(), device);
+            long seq = sequence.incrementAndGet();
+            device.registrySeq = seq;
+            device.registry = this;
+            ordered.put(seq, device);
+            index(byName, device.getName(), seq, device);
+            index(byType, device.getClass(), seq, device);
+            added.add(device);
+        }
+        if (!added.isEmpty()) version.incrementAndGet();
+        return added;
+    }
+
+    public Device remove(String deviceId) {
+        UUID alias = parse(deviceId);
+        return alias == null ? null : remove(byId.get(alias));
+    }
+
+    public Device remove(long key) {
+        return remove(byKey.get(key));
+    }
+
+    private Device remove(Device device) {
+        if (device == null || !byKey.remove(device.getKey(), device)) return null;
+        byId.remove(aliasOf(device), device);
+
+        long seq = device.registrySeq;
+        ordered.remove(seq);
+        unindex(byName, device.getName(), seq);
+        unindex(byType, device.getClass(), seq);
+        if (device.registry == this) device.registry = null;
+        version.incrementAndGet();
+        return device;
+    }
+
+    public Device getById(String deviceId) {
+        UUID alias = parse(deviceId);
+        return alias == null ? null : byId.get(alias);
+    }
+
+    public Device getByKey(long key) {
+        return byKey.get(key);
+    }
+
+    // First device registered under this name, same as the old linear scan
+    public Device getFirstByName(String name) {
+        ConcurrentNavigableMap<Long, Device> matches = byName.get(name);
+        if (matches == null) return null;
+        Map.Entry<Long, Device> first = matches.firstEntry();
+        return first == null ? null : first.getValue();
+    }
+
+    public List<Device> getByType(Class<?> type) {
+        // Buckets are per concrete class, so only a handful are checked before
+        // copying the matches (query types can be abstract or an interface)
+        List<Device> result = new ArrayList<>();
+        for (Map.Entry<Class<?>, ConcurrentNavigableMap<Long, Device>> entry : byType.entrySet()) {
+            if (type.isAssignableFrom(entry.getKey())) {
+                result.addAll(entry.getValue().values());
+            }
+        }
+        return result;
+    }
+
+    public List<Device> getAll() {
+        return snapshot().getItems();
+    }
+
+    // Shared immutable list, only rebuilt after the registry has changed
+    public Snapshot<Device> snapshot() {
+        Snapshot<Device> current = snapshot;
+        long v = version.get();
+        if (current.getVersion() == v) return current;
+
+        // Read the version before copying: a change that lands mid-copy leaves
+        // this snapshot tagged as stale, so the next reader rebuilds it again
+        current = new Snapshot<>(v, new ArrayList<>(ordered.values()));
+        snapshot = current;
+        return current;
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    // Moves the version past that of the registry this one replaces, so anyone polling
+    // versions sees the replacement as a change
+    void continueAfter(long previousVersion) {
+        version.accumulateAndGet(previousVersion + 1, Math::max);
+    }
+
+    public int size() {
+        return byKey.size();
+    }
+
+    public boolean isEmpty() {
+        return byKey.isEmpty();
+    }
+
+    // Called by Device.setName so the name index never goes stale
+    void nameChanged(Device device, String oldName) {
+        if (byKey.get(device.getKey()) != device) return;
+        long seq = device.registrySeq;
+        unindex(byName, oldName, seq);
+        index(byName, device.getName(), seq, device);
+        version.incrementAndGet();
+    }
+
+    private static UUID aliasOf(Device device) {
+        return new UUID(device.getIdHigh(), device.getIdLow());
+    }
+
+    // Null for text that isn't a UUID, which can't name a device
+    private static UUID parse(String deviceId) {
+        if (deviceId == null) return null;
+        try {
+            return UUID.fromString(deviceId);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static <K> void index(Map<K, ConcurrentNavigableMap<Long, Device>> index, K key, long seq, Device device) {
+        // compute() holds the bin lock, so this can't race with unindex() dropping an empty bucket
+        index.compute(key, (k, bucket) -> {
+            if (bucket == null) bucket = new ConcurrentSkipListMap<>();
+            bucket.put(seq, device);
+            return bucket;
+        });
+    }
+
+    private static <K> void unindex(Map<K, ConcurrentNavigableMap<Long, Device>> index, K key, long seq) {
+        index.computeIfPresent(key, (k, bucket) -> {
+            bucket.remove(seq);
+            return bucket.isEmpty() ? null : bucket;
+        });
+    }
+}
\ No newline at end of file
@@ -1,4 +1,7 @@
+import java.util.List;
+
 public class DoorLock extends Device {
+    private static final long serialVersionUID = 6969896255869399868L;
     private boolean isLocked;
     private String location;
     
@@ -10,29 +13,51 @@ public class DoorLock extends Device {
     }
     
     @Override
-    public String getStatus() {
-        return String.format("%s (%s): %s", name, location, isLocked ? "LOCKED" : "UNLOCKED");
+    protected void renderStatus(StringBuilder sb) {
+        sb.append(name).append(" (").append(location).append("): ").append(isLocked ? "LOCKED" : "UNLOCKED");
     }
     
     @Override
     public void toggle() {
         isLocked = !isLocked;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.LOCKED, !isLocked, isLocked);
     }
     
     @Override
     public void turnOn() {
+        boolean wasLocked = isLocked;
         isLocked = true;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.LOCKED, wasLocked, true);
     }
     
     @Override
     public void turnOff() {
+        boolean wasLocked = isLocked;
         isLocked = false;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.LOCKED, wasLocked, false);
     }
     
     public boolean isLocked() { return isLocked; }
     public String getLocation() { return location; }
-    public void setLocation(String location) { this.location = location; }
+    public void setLocation(String location) {
+        String oldLocation = this.location;
+        this.location = location;
+        firePropertyChange(DeviceEvent.LOCATION, oldLocation, location);
+    }
+    
+    @Override
+    protected void captureState(List<DeviceEvent> state) {
+        super.captureState(state);
+        state.add(DeviceEvent.ofBoolean(this, DeviceEvent.LOCKED, isLocked, isLocked));
+        state.add(DeviceEvent.ofText(this, DeviceEvent.LOCATION, location, location));
+    }
+    
+    @Override
+    protected boolean restoreState(String property, long value, String text) {
+        switch (property) {
+            case DeviceEvent.LOCKED: isLocked = value != 0; return true;
+            case DeviceEvent.LOCATION: location = text; return true;
+            default: return super.restoreState(property, value, text);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+// Which events a subscription wants. Criteria combine with AND, e.g.
+//   EventFilter.forType(DoorLock.class).withProperty(DeviceEvent.LOCKED)
+// Controller text messages only reach filters with no criteria at all.
+public final class EventFilter {
+    private static final EventFilter ALL = new EventFilter(null, null, null);
+
+    private final Set<String> deviceIds;     // null = any device
+    private final Class<?> deviceType;       // null = any type
+    private final Set<String> properties;    // null = any property
+
+    private EventFilter(Set<String> deviceIds, Class<?> deviceType, Set<String> properties) {
+        this.deviceIds = deviceIds;
+        this.deviceType = deviceType;
+        this.properties = properties;
+    }
+
+    public static EventFilter all() {
+        return ALL;
+    }
+
+    public static EventFilter forDevice(String... deviceIds) {
+        return ALL.withDevice(deviceIds);
+    }
+
+    public static EventFilter forType(Class<?> deviceType) {
+        return ALL.withType(deviceType);
+    }
+
+    public static EventFilter forProperty(String... properties) {
+        return ALL.withProperty(properties);
+    }
+
+    public EventFilter withDevice(String... ids) {
+        return new EventFilter(toSet(ids), deviceType, properties);
+    }
+
+    public EventFilter withType(Class<?> type) {
+        return new EventFilter(deviceIds, type, properties);
+    }
+
+    public EventFilter withProperty(String... names) {
+        return new EventFilter(deviceIds, deviceType, toSet(names));
+    }
+
+    public Set<String> getDeviceIds() { return deviceIds; }
+    public Class<?> getDeviceType() { return deviceType; }
+    public Set<String> getProperties() { return properties; }
+
+    public boolean isUnfiltered() {
+        return deviceIds == null && deviceType == null && properties == null;
+    }
+
+    public boolean matches(HomeEvent event) {
+        if (!(event instanceof DeviceEvent)) return isUnfiltered();
+        DeviceEvent deviceEvent = (DeviceEvent) event;
+        return matchesDevice(deviceEvent.getDeviceId(), deviceEvent.getDeviceType())
+                && matchesProperties(deviceEvent);
+    }
+
+    // Everything except the device id, which the routing table handles separately
+    boolean matchesOtherThanDevice(DeviceEvent event) {
+        return matchesType(event.getDeviceType()) && matchesProperties(event);
+    }
+
+    boolean matchesType(Class<?> type) {
+        return deviceType == null || deviceType.isAssignableFrom(type);
+    }
+
+    boolean matchesProperty(String property) {
+        return properties == null || properties.contains(property);
+    }
+
+    private boolean matchesDevice(String id, Class<?> type) {
+        return (deviceIds == null || deviceIds.contains(id)) && matchesType(type);
+    }
+
+    private boolean matchesProperties(DeviceEvent event) {
+        if (properties == null) return true;
+        for (String property : properties) {
+            if (event.hasProperty(property)) return true;
+        }
+        return false;
+    }
+
+    private static Set<String> toSet(String[] values) {
+        return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(values)));
+    }
+
+    @Override
+    public String toString() {
+        if (isUnfiltered()) return "all events";
+        StringBuilder sb = new StringBuilder();
+        if (deviceIds != null) sb.append("devices ").append(deviceIds).append(' ');
+        if (deviceType != null) sb.append("type ").append(deviceType.getSimpleName()).append(' ');
+        if (properties != null) sb.append("properties ").append(properties);
+        return sb.toString().trim();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,447 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Append-only journal of device events in fixed-size, memory-mapped segment files.
+// Writers claim space with a CAS on the segment's write position and copy the record
+// straight into the mapping, so appending is a few memory stores and no system call.
+// A background thread forces dirty pages to disk every flush interval.
+//
+// Record layout (little endian, padded to 8 bytes):
+//    0  int    record length, written last; 0 = not written yet, -1 = end of segment
+//    4  short  property code, -1 = name stored in the tail
+//    6  byte   value kind (DeviceEvent.ValueKind ordinal)
+//    7  byte   flags, FLAG_CONTINUED = more changes of the same compound event follow
+//    8  long   journal position of this record, to spot stale bytes
+//   16  long   timestamp
+//   24  long   device id, most significant bits
+//   32  long   device id, least significant bits
+//   40  long   old value
+//   48  long   new value
+//   56  short  old text length, -1 = null
+//   58  short  new text length, -1 = null
+//   60  short  property name length
+//   62  short  reserved
+//   64  old text, new text, property name as UTF-8
+//
+// A record's position is its byte offset across the whole journal. Segment files are
+// named after the position they start at.
+public class EventJournal implements Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    public static final long DEFAULT_FLUSH_MILLIS = 200;
+
+    static final int HEADER_SIZE = 64;
+    static final byte FLAG_CONTINUED = 1;
+    private static final int END_OF_SEGMENT = -1;
+    private static final int NULL_TEXT = 0xFFFF;
+    private static final int MAX_TEXT = 0xFFFE;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // Codes are stored on disk: only ever append to this list
+    private static final String[] PROPERTIES = {
+        DeviceEvent.POWER, DeviceEvent.NAME, DeviceEvent.BRIGHTNESS, DeviceEvent.COLOR,
+        DeviceEvent.SPEED, DeviceEvent.OSCILLATING, DeviceEvent.TEMPERATURE, DeviceEvent.MODE,
+        DeviceEvent.TARGET_TEMPERATURE, DeviceEvent.CURRENT_TEMPERATURE, DeviceEvent.LOCKED,
+        DeviceEvent.LOCATION, DeviceEvent.RECORDING, DeviceEvent.RESOLUTION,
+        DeviceEvent.ADDED, DeviceEvent.REMOVED
+    };
+    private static final Map<String, Short> PROPERTY_CODES = new HashMap<>();
+    static {
+        for (short i = 0; i < PROPERTIES.length; i++) {
+            PROPERTY_CODES.put(PROPERTIES[i], i);
+        }
+    }
+    private static final DeviceEvent.ValueKind[] KINDS = DeviceEvent.ValueKind.values();
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Queue<Segment> sealed = new ConcurrentLinkedQueue<>(); // Rolled, not yet forced
+    private volatile Segment current;
+    private volatile boolean open;
+    private final Thread flusher;
+
+    public EventJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_MILLIS);
+    }
+
+    public EventJournal(Path directory, int segmentSize, long flushMillis) throws IOException {
+        if (segmentSize < 4096) throw new IllegalArgumentException("Segment size must be at least 4096 bytes");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        this.current = recover();
+        this.open = true;
+        this.flusher = new Thread(() -> flushLoop(flushMillis), "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Position the next record will be written at
+    public long getEndPosition() {
+        Segment segment = current;
+        return segment.base + Math.min(segment.position.get(), segmentSize);
+    }
+
+    // Writes every change of the event; compound events go in as one contiguous run that
+    // shares the event's timestamp. Returns false, writing nothing, once the journal is
+    // closed: a device change racing a journal swap or shutdown must not fail.
+    public boolean append(DeviceEvent event) {
+        if (!open) return false;
+        DeviceEvent[] changes = event.getChanges();
+        byte[][] texts = new byte[changes.length * 3][];
+        int total = 0;
+        for (int i = 0; i < changes.length; i++) {
+            total += encode(changes[i], texts, i * 3);
+        }
+        if (total > segmentSize) throw new IllegalArgumentException("Event does not fit in a journal segment");
+
+        while (true) {
+            Segment segment = current;
+            int start = segment.claim(total);
+            if (start >= 0) {
+                int offset = start;
+                for (int i = 0; i < changes.length; i++) {
+                    byte flags = i < changes.length - 1 ? FLAG_CONTINUED : 0;
+                    offset += write(segment, offset, changes[i], event.getTimestamp(), flags, texts, i * 3);
+                }
+                return true;
+            }
+            roll(segment);
+        }
+    }
+
+    // Calls the visitor for every complete record at or after the given position and
+    // returns the position just past the last one
+    public long read(long from, Consumer<Entry> visitor) throws IOException {
+        return scan(from, cursor -> {
+            visitor.accept(cursor.toEntry());
+            return true;
+        });
+    }
+
+    // Walks the records in place: the visitor gets the same cursor each time, pointing at
+    // the mapped bytes, and nothing is decoded unless asked for. Stops when the visitor
+    // returns false and returns the position of the first record not consumed.
+    public long scan(long from, Predicate<Cursor> visitor) throws IOException {
+        long position = from;
+        Cursor cursor = new Cursor();
+        for (Path path : segmentFiles()) {
+            long base = baseOf(path);
+            if (base + segmentSize <= position) continue;
+            if (base > position) position = base;
+            cursor.buffer = map(path, FileChannel.MapMode.READ_ONLY);
+            cursor.base = base;
+            int offset = (int) (position - base);
+            while (offset + HEADER_SIZE <= segmentSize) {
+                int length = (int) INT.getAcquire(cursor.buffer, offset);
+                if (length == END_OF_SEGMENT) break;
+                if (length <= 0 || cursor.buffer.getLong(offset + 8) != base + offset) return base + offset;
+                cursor.offset = offset;
+                if (!visitor.test(cursor)) return base + offset;
+                offset += length;
+            }
+            position = base + segmentSize;
+        }
+        return position;
+    }
+
+    // Forces everything written so far to disk
+    public void flush() {
+        Segment segment;
+        while ((segment = sealed.poll()) != null) {
+            segment.buffer.force();
+        }
+        current.buffer.force();
+    }
+
+    @Override
+    public void close() {
+        if (!open) return;
+        open = false;
+        flusher.interrupt();
+        flush();
+    }
+
+    private int encode(DeviceEvent change, byte[][] texts, int slot) {
+        texts[slot] = utf8(change.getOldText());
+        texts[slot + 1] = utf8(change.getNewText());
+        texts[slot + 2] = PROPERTY_CODES.containsKey(change.getProperty()) ? null : utf8(change.getProperty());
+        int length = HEADER_SIZE + size(texts[slot]) + size(texts[slot + 1]) + size(texts[slot + 2]);
+        return (length + 7) & ~7;
+    }
+
+    private int write(Segment segment, int offset, DeviceEvent change, long timestamp, byte flags, byte[][] texts, int slot) {
+        MappedByteBuffer buffer = segment.buffer;
+        Short code = PROPERTY_CODES.get(change.getProperty());
+        byte[] oldText = texts[slot], newText = texts[slot + 1], name = texts[slot + 2];
+
+        buffer.putShort(offset + 4, code != null ? code : -1);
+        buffer.put(offset + 6, (byte) change.getKind().ordinal());
+        buffer.put(offset + 7, flags);
+        buffer.putLong(offset + 8, segment.base + offset);
+        buffer.putLong(offset + 16, timestamp);
+        buffer.putLong(offset + 24, change.getDeviceIdHigh());
+        buffer.putLong(offset + 32, change.getDeviceIdLow());
+        buffer.putLong(offset + 40, change.getOldValue());
+        buffer.putLong(offset + 48, change.getNewValue());
+        buffer.putShort(offset + 56, (short) (oldText == null ? NULL_TEXT : oldText.length));
+        buffer.putShort(offset + 58, (short) (newText == null ? NULL_TEXT : newText.length));
+        buffer.putShort(offset + 60, (short) size(name));
+        int tail = offset + HEADER_SIZE;
+        tail = copy(buffer, tail, oldText);
+        tail = copy(buffer, tail, newText);
+        tail = copy(buffer, tail, name);
+
+        int length = ((tail - offset) + 7) & ~7;
+        INT.setRelease(buffer, offset, length); // Publishes the record
+        return length;
+    }
+
+    private synchronized void roll(Segment full) {
+        if (current != full) return; // Another writer already rolled it
+        try {
+            current = openSegment(full.base + segmentSize, 0);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open journal segment: " + e.getMessage(), e);
+        }
+        sealed.add(full);
+    }
+
+    // Reopens the last segment and finds where writing stopped
+    private Segment recover() throws IOException {
+        List<Path> files = segmentFiles();
+        if (files.isEmpty()) return openSegment(0, 0);
+        Path last = files.get(files.size() - 1);
+        long base = baseOf(last);
+        MappedByteBuffer buffer = map(last, FileChannel.MapMode.READ_ONLY);
+        int offset = 0;
+        while (offset + HEADER_SIZE <= segmentSize) {
+            int length = (int) INT.getAcquire(buffer, offset);
+            if (length == END_OF_SEGMENT) return openSegment(base + segmentSize, 0);
+            if (length <= 0 || buffer.getLong(offset + 8) != base + offset) break;
+            offset += length;
+        }
+        return openSegment(base, offset);
+    }
+
+    private Segment openSegment(long base, int position) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, base, SEGMENT_SUFFIX));
+        return new Segment(base, map(path, FileChannel.MapMode.READ_WRITE), position, segmentSize);
+    }
+
+    private MappedByteBuffer map(Path path, FileChannel.MapMode mode) throws IOException {
+        Set<StandardOpenOption> options = mode == FileChannel.MapMode.READ_ONLY
+                ? EnumSet.of(StandardOpenOption.READ)
+                : EnumSet.of(StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            MappedByteBuffer buffer = channel.map(mode, 0, segmentSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                files.add(path);
+            }
+        }
+        files.sort(Comparator.comparingLong(EventJournal::baseOf));
+        return files;
+    }
+
+    private static long baseOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private void flushLoop(long flushMillis) {
+        while (open) {
+            try {
+                Thread.sleep(flushMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            flush();
+        }
+    }
+
+    private static byte[] utf8(String text) {
+        if (text == null) return null;
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_TEXT) throw new IllegalArgumentException("Text too long for the journal");
+        return bytes;
+    }
+
+    private static int size(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static int copy(MappedByteBuffer buffer, int offset, byte[] bytes) {
+        if (bytes == null) return offset;
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + i, bytes[i]);
+        }
+        return offset + bytes.length;
+    }
+
+    private static String text(MappedByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Segment {
+        final long base;
+        final MappedByteBuffer buffer;
+        final AtomicInteger position;
+        final int capacity;
+
+        Segment(long base, MappedByteBuffer buffer, int position, int capacity) {
+            this.base = base;
+            this.buffer = buffer;
+            this.position = new AtomicInteger(position);
+            this.capacity = capacity;
+        }
+
+        // Offset of the claimed space, or -1 once the segment is full
+        int claim(int length) {
+            while (true) {
+                int start = position.get();
+                if (start >= capacity) return -1;
+                if (start + length > capacity) {
+                    // Seal it so every later claim fails too, and mark where the data ends
+                    if (position.compareAndSet(start, capacity)) {
+                        if (start + 4 <= capacity) INT.setRelease(buffer, start, END_OF_SEGMENT);
+                        return -1;
+                    }
+                } else if (position.compareAndSet(start, start + length)) {
+                    return start;
+                }
+            }
+        }
+    }
+
+    // Reads the record it currently points at straight from the mapping
+    public static final class Cursor {
+        private MappedByteBuffer buffer;
+        private long base;
+        private int offset;
+
+        public long getPosition() { return base + offset; }
+        public long getNextPosition() { return base + offset + (int) INT.getAcquire(buffer, offset); }
+        public long getTimestamp() { return buffer.getLong(offset + 16); }
+        public long getDeviceIdHigh() { return buffer.getLong(offset + 24); }
+        public long getDeviceIdLow() { return buffer.getLong(offset + 32); }
+        public DeviceEvent.ValueKind getKind() { return KINDS[buffer.get(offset + 6)]; }
+        public long getOldValue() { return buffer.getLong(offset + 40); }
+        public long getNewValue() { return buffer.getLong(offset + 48); }
+        public boolean isContinued() { return (buffer.get(offset + 7) & FLAG_CONTINUED) != 0; }
+
+        public String getDeviceId() {
+            return new UUID(getDeviceIdHigh(), getDeviceIdLow()).toString();
+        }
+
+        // Known properties come back as the DeviceEvent constants, so == works
+        public String getProperty() {
+            int code = buffer.getShort(offset + 4);
+            if (code >= 0) return PROPERTIES[code];
+            return text(buffer, offset + HEADER_SIZE + textSize(56) + textSize(58), buffer.getShort(offset + 60) & 0xFFFF);
+        }
+
+        public String getOldText() {
+            return textAt(offset + HEADER_SIZE, 56);
+        }
+
+        public String getNewText() {
+            return textAt(offset + HEADER_SIZE + textSize(56), 58);
+        }
+
+        public Entry toEntry() {
+            return new Entry(getPosition(), getTimestamp(), getDeviceId(), getProperty(), getKind(),
+                    getOldValue(), getNewValue(), getOldText(), getNewText(), isContinued());
+        }
+
+        private int textSize(int field) {
+            int length = buffer.getShort(offset + field) & 0xFFFF;
+            return length == NULL_TEXT ? 0 : length;
+        }
+
+        private String textAt(int start, int field) {
+            int length = buffer.getShort(offset + field) & 0xFFFF;
+            return length == NULL_TEXT ? null : text(buffer, start, length);
+        }
+    }
+
+    // One recorded change, as read back from the journal
+    public static final class Entry {
+        private final long position;
+        private final long timestamp;
+        private final String deviceId;
+        private final String property;
+        private final DeviceEvent.ValueKind kind;
+        private final long oldValue;
+        private final long newValue;
+        private final String oldText;
+        private final String newText;
+        private final boolean continued;
+
+        Entry(long position, long timestamp, String deviceId, String property, DeviceEvent.ValueKind kind,
+              long oldValue, long newValue, String oldText, String newText, boolean continued) {
+            this.position = position;
+            this.timestamp = timestamp;
+            this.deviceId = deviceId;
+            this.property = property;
+            this.kind = kind;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+            this.oldText = oldText;
+            this.newText = newText;
+            this.continued = continued;
+        }
+
+        public long getPosition() { return position; }
+        public long getTimestamp() { return timestamp; }
+        public String getDeviceId() { return deviceId; }
+        public String getProperty() { return property; }
+        public DeviceEvent.ValueKind getKind() { return kind; }
+        public long getOldValue() { return oldValue; }
+        public long getNewValue() { return newValue; }
+        public String getOldText() { return oldText; }
+        public String getNewText() { return newText; }
+
+        // True when the next entry belongs to the same compound event
+        public boolean isContinued() { return continued; }
+
+        @Override
+        public String toString() {
+            boolean text = kind == DeviceEvent.ValueKind.TEXT || kind == DeviceEvent.ValueKind.CHOICE;
+            return String.format("@%d %s %s %s -> %s", position, deviceId, property,
+                    text ? oldText : Long.toString(oldValue), text ? newText : Long.toString(newValue));
+        }
+    }
+}
\ No newline at end of file
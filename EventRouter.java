@@ -0,0 +1,220 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Delivers controller events only to the subscriptions whose filter matches. Subscribers
+// live in an immutable routing table that is replaced on subscribe/unsubscribe. For each
+// (device class, property) pair the matching subscribers are worked out once and cached,
+// so routing an event is a couple of map lookups, and an event nobody wants is dropped
+// before anything is queued.
+public class EventRouter {
+    private static final Subscription[] NONE = new Subscription[0];
+
+    private final int queueCapacity;
+    private volatile RoutingTable table;
+
+    public EventRouter(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        this.table = new RoutingTable(Collections.emptyList());
+    }
+
+    public void publish(HomeEvent event) {
+        Subscription[] targets = table.route(event);
+        for (Subscription target : targets) {
+            target.queue.offer(event);
+        }
+    }
+
+    public Subscription subscribe(EventFilter filter, Observer observer) {
+        return subscribe(filter, observer, OverflowPolicy.BLOCK, queueCapacity);
+    }
+
+    public synchronized Subscription subscribe(EventFilter filter, Observer observer,
+                                               OverflowPolicy policy, int capacity) {
+        Subscription subscription = new Subscription(filter, observer, ObserverQueue.create(policy, capacity, observer));
+        List<Subscription> all = new ArrayList<>(table.subscriptions);
+        all.add(subscription);
+        table = new RoutingTable(all);
+        return subscription;
+    }
+
+    public synchronized void unsubscribe(Subscription subscription) {
+        List<Subscription> all = new ArrayList<>(table.subscriptions);
+        if (all.remove(subscription)) {
+            table = new RoutingTable(all);
+            subscription.close();
+        }
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public List<Subscription> getSubscriptions() {
+        return table.subscriptions;
+    }
+
+    public synchronized void shutdown() {
+        for (Subscription subscription : table.subscriptions) {
+            subscription.close();
+        }
+        table = new RoutingTable(Collections.emptyList());
+    }
+
+    // One observer with its filter, fed through its own bounded queue and thread
+    public static final class Subscription {
+        private final EventFilter filter;
+        private final Observer observer;
+        private final ObserverQueue queue;
+
+        Subscription(EventFilter filter, Observer observer, ObserverQueue queue) {
+            this.filter = filter;
+            this.observer = observer;
+            this.queue = queue;
+        }
+
+        public EventFilter getFilter() { return filter; }
+        public Observer getObserver() { return observer; }
+        public OverflowPolicy getPolicy() { return queue.getPolicy(); }
+        public int getQueueCapacity() { return queue.getCapacity(); }
+
+        public long getQueueDepth() {
+            return queue.getDepth();
+        }
+
+        public long getDropped() {
+            return queue.getDropped();
+        }
+
+        void close() {
+            queue.close();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s [%s, %s, depth %d/%d, dropped %d]", observer.getClass().getSimpleName(),
+                    filter, queue.getPolicy(), queue.getDepth(), queue.getCapacity(), queue.getDropped());
+        }
+    }
+
+    private static final class RoutingTable {
+        final List<Subscription> subscriptions;
+        final Subscription[] unfiltered;                   // Get everything, including text messages
+        final Subscription[] byTypeOrProperty;             // No device ids, resolved per (class, property)
+        final DeviceIndex byDeviceId;                      // Filters naming specific devices
+        final Map<Class<?>, Map<String, Subscription[]>> resolved = new ConcurrentHashMap<>();
+
+        RoutingTable(List<Subscription> subscriptions) {
+            this.subscriptions = Collections.unmodifiableList(subscriptions);
+            List<Subscription> unfilteredList = new ArrayList<>();
+            List<Subscription> general = new ArrayList<>();
+            Map<UUID, List<Subscription>> ids = new HashMap<>();
+            for (Subscription s : subscriptions) {
+                EventFilter filter = s.getFilter();
+                if (filter.isUnfiltered()) {
+                    unfilteredList.add(s);
+                } else if (filter.getDeviceIds() != null) {
+                    for (String id : filter.getDeviceIds()) {
+                        UUID uuid = parse(id);
+                        if (uuid != null) ids.computeIfAbsent(uuid, k -> new ArrayList<>()).add(s);
+                    }
+                } else {
+                    general.add(s);
+                }
+            }
+            this.unfiltered = unfilteredList.toArray(NONE);
+            this.byTypeOrProperty = general.toArray(NONE);
+            this.byDeviceId = new DeviceIndex(ids);
+        }
+
+        Subscription[] route(HomeEvent event) {
+            if (!(event instanceof DeviceEvent)) return unfiltered;
+            DeviceEvent deviceEvent = (DeviceEvent) event;
+
+            Subscription[] targets;
+            if (deviceEvent.isCompound()) {
+                // Rare: union of what each changed property routes to
+                Set<Subscription> union = new LinkedHashSet<>();
+                for (DeviceEvent change : deviceEvent.getChanges()) {
+                    union.addAll(Arrays.asList(resolve(change.getDeviceType(), change.getProperty())));
+                }
+                targets = union.toArray(NONE);
+            } else {
+                targets = resolve(deviceEvent.getDeviceType(), deviceEvent.getProperty());
+            }
+
+            Subscription[] forDevice = byDeviceId.get(deviceEvent.getDeviceIdHigh(), deviceEvent.getDeviceIdLow());
+            if (forDevice == null) return targets;
+
+            List<Subscription> merged = new ArrayList<>(Arrays.asList(targets));
+            for (Subscription s : forDevice) {
+                if (s.getFilter().matchesOtherThanDevice(deviceEvent)) merged.add(s);
+            }
+            return merged.toArray(NONE);
+        }
+
+        private Subscription[] resolve(Class<?> type, String property) {
+            Map<String, Subscription[]> forType = resolved.computeIfAbsent(type, k -> new ConcurrentHashMap<>());
+            Subscription[] cached = forType.get(property);
+            if (cached != null) return cached;
+
+            List<Subscription> matches = new ArrayList<>(Arrays.asList(unfiltered));
+            for (Subscription s : byTypeOrProperty) {
+                if (s.getFilter().matchesType(type) && s.getFilter().matchesProperty(property)) {
+                    matches.add(s);
+                }
+            }
+            Subscription[] result = matches.isEmpty() ? NONE : matches.toArray(NONE);
+            forType.put(property, result);
+            return result;
+        }
+
+        // Device ids are UUID text; one that isn't can never name a device
+        private static UUID parse(String id) {
+            try {
+                return UUID.fromString(id);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    // Open-addressed table from the two halves of a device UUID, so routing by device
+    // needs neither the id text nor a boxed key
+    private static final class DeviceIndex {
+        private final long[] highs;
+        private final long[] lows;
+        private final Subscription[][] targets;
+        private final int mask;
+
+        DeviceIndex(Map<UUID, List<Subscription>> ids) {
+            int capacity = Integer.highestOneBit(Math.max(ids.size(), 1) * 2) * 2; // At most half full
+            highs = new long[capacity];
+            lows = new long[capacity];
+            targets = new Subscription[capacity][];
+            mask = capacity - 1;
+            for (Map.Entry<UUID, List<Subscription>> entry : ids.entrySet()) {
+                long high = entry.getKey().getMostSignificantBits();
+                long low = entry.getKey().getLeastSignificantBits();
+                int slot = slot(high, low);
+                while (targets[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                highs[slot] = high;
+                lows[slot] = low;
+                targets[slot] = entry.getValue().toArray(NONE);
+            }
+        }
+
+        Subscription[] get(long high, long low) {
+            for (int slot = slot(high, low); targets[slot] != null; slot = (slot + 1) & mask) {
+                if (highs[slot] == high && lows[slot] == low) return targets[slot];
+            }
+            return null;
+        }
+
+        private int slot(long high, long low) {
+            long hash = (high ^ low) * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 32) & mask;
+        }
+    }
+}
\ No newline at end of file
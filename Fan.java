@@ -1,4 +1,7 @@
+import java.util.List;
+
 public class Fan extends Device {
+    private static final long serialVersionUID = 8788507560373761626L;
     private int speed; // 1-5
     private boolean oscillating;
     
@@ -9,42 +12,70 @@ public class Fan extends Device {
     }
     
     @Override
-    public String getStatus() {
-        if (!isOn) return String.format("%s: OFF", name);
-        return String.format("%s: ON, Speed: %d, Oscillating: %s", name, speed, oscillating ? "YES" : "NO");
+    protected void renderStatus(StringBuilder sb) {
+        sb.append(name);
+        if (!isOn) {
+            sb.append(": OFF");
+            return;
+        }
+        sb.append(": ON, Speed: ").append(speed).append(", Oscillating: ").append(oscillating ? "YES" : "NO");
     }
     
     @Override
     public void toggle() {
         isOn = !isOn;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.POWER, !isOn, isOn);
     }
     
     @Override
     public void turnOn() {
+        boolean wasOn = isOn;
         isOn = true;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.POWER, wasOn, true);
     }
     
     @Override
     public void turnOff() {
+        boolean wasOn = isOn;
         isOn = false;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.POWER, wasOn, false);
     }
     
     public void setSpeed(int speed) {
         if (speed >= 1 && speed <= 5) {
-            this.speed = speed;
-            if (!isOn) turnOn();
-            notifyObservers();
+            int oldSpeed = this.speed;
+            beginUpdate(); // Turning on and the new speed go out as one event
+            try {
+                this.speed = speed;
+                if (!isOn) turnOn();
+                firePropertyChange(DeviceEvent.SPEED, oldSpeed, speed);
+            } finally {
+                endUpdate();
+            }
         }
     }
     
     public void toggleOscillation() {
         oscillating = !oscillating;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.OSCILLATING, !oscillating, oscillating);
     }
     
     public int getSpeed() { return speed; }
     public boolean isOscillating() { return oscillating; }
+    
+    @Override
+    protected void captureState(List<DeviceEvent> state) {
+        super.captureState(state);
+        state.add(DeviceEvent.ofInt(this, DeviceEvent.SPEED, speed, speed));
+        state.add(DeviceEvent.ofBoolean(this, DeviceEvent.OSCILLATING, oscillating, oscillating));
+    }
+    
+    @Override
+    protected boolean restoreState(String property, long value, String text) {
+        switch (property) {
+            case DeviceEvent.SPEED: speed = (int) value; return true;
+            case DeviceEvent.OSCILLATING: oscillating = value != 0; return true;
+            default: return super.restoreState(property, value, text);
+        }
+    }
 }
\ No newline at end of file
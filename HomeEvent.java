@@ -0,0 +1,29 @@
+// Base for everything published on the controller's event bus. The readable text is
+// only built the first time a consumer asks for it, and then shared by every consumer.
+public abstract class HomeEvent {
+    private final long timestamp;
+    private String message;
+
+    protected HomeEvent(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getTimestamp() { return timestamp; }
+
+    public final String getMessage() {
+        String rendered = message;
+        if (rendered == null) {
+            // Racing consumers may both render, they produce the same text
+            rendered = render();
+            message = rendered;
+        }
+        return rendered;
+    }
+
+    protected abstract String render();
+
+    @Override
+    public String toString() {
+        return getMessage();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,26 @@
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Identity of devices and tasks. Inside the program they are keyed on a dense 64-bit key
+// handed out in creation order, which is never stored: a loaded device gets a new one.
+// The UUID is the lasting alias, used in saved files, the journal and by outside callers.
+public final class Ids {
+    private static final AtomicLong NEXT_KEY = new AtomicLong();
+
+    private Ids() {
+    }
+
+    public static long nextKey() {
+        return NEXT_KEY.incrementAndGet();
+    }
+
+    // A version 4 UUID from ThreadLocalRandom. Ids have to be unique, not unguessable,
+    // so there's no need for the SecureRandom behind UUID.randomUUID().
+    public static UUID randomUuid() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long high = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long low = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(high, low);
+    }
+}
\ No newline at end of file
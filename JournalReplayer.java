@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.util.*;
+
+// Rebuilds device state from an event journal as it was at a given time. Records are
+// read in place through the journal cursor and applied straight to device fields, so
+// no events are created and no observers fire. Every checkpointInterval records the
+// replayer keeps a copy of the full state, and later replays start from the nearest
+// checkpoint instead of the beginning of the journal.
+//
+// "At time t" means every record up to the first one stamped after t, in journal order.
+public class JournalReplayer {
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 100_000;
+
+    private final EventJournal journal;
+    private final int checkpointInterval;
+    private final List<Checkpoint> checkpoints; // In journal order, so also by timestamp
+
+    public JournalReplayer(EventJournal journal) {
+        this(journal, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    public JournalReplayer(EventJournal journal, int checkpointInterval) {
+        if (checkpointInterval < 1) throw new IllegalArgumentException("Checkpoint interval must be at least 1");
+        this.journal = journal;
+        this.checkpointInterval = checkpointInterval;
+        this.checkpoints = new ArrayList<>();
+    }
+
+    // A new standalone controller holding the devices as they were at the given time
+    public SmartHomeController replayTo(long timestamp) throws IOException {
+        SmartHomeController controller = SmartHomeController.createStandalone();
+        for (Device device : devicesAt(timestamp)) {
+            controller.addDevice(device);
+        }
+        return controller;
+    }
+
+    // The devices as they were at the given time, in the order they were added
+    public synchronized List<Device> devicesAt(long timestamp) throws IOException {
+        Replay replay = new Replay(timestamp);
+        Checkpoint start = floor(timestamp);
+        long from = 0;
+        if (start != null) {
+            replay.restore(start);
+            from = start.nextPosition;
+        }
+        journal.scan(from, replay::apply);
+        return new ArrayList<>(replay.devices.values());
+    }
+
+    public synchronized int getCheckpointCount() {
+        return checkpoints.size();
+    }
+
+    // Latest checkpoint that doesn't include anything after the timestamp
+    private Checkpoint floor(long timestamp) {
+        int low = 0, high = checkpoints.size() - 1;
+        Checkpoint found = null;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Checkpoint checkpoint = checkpoints.get(mid);
+            if (checkpoint.maxTimestamp <= timestamp) {
+                found = checkpoint;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private final class Replay {
+        final long until;
+        final Map<DeviceId, Device> devices = new LinkedHashMap<>();
+        private final DeviceId probe = new DeviceId(0, 0); // Reused for lookups, never stored
+        long maxTimestamp = Long.MIN_VALUE;
+        long applied;       // Records since the start of the journal
+        long nextCheckpointAt = checkpointInterval;
+        boolean inAddedRun; // Reading the state that follows an ADDED record
+        Device adding;      // Device being filled in, null if its type is unknown
+
+        Replay(long until) {
+            this.until = until;
+        }
+
+        boolean apply(EventJournal.Cursor record) {
+            long timestamp = record.getTimestamp();
+            if (timestamp > until) return false;
+
+            String property = record.getProperty();
+            if (property == DeviceEvent.ADDED) {
+                inAddedRun = true;
+                adding = create(record);
+            } else if (inAddedRun) {
+                if (adding != null) adding.restoreState(property, record.getNewValue(), textOf(record));
+            } else if (property == DeviceEvent.REMOVED) {
+                devices.remove(probe(record));
+            } else {
+                Device device = devices.get(probe(record));
+                if (device != null) {
+                    device.replayState(property, record.getNewValue(), textOf(record));
+                }
+            }
+
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+            applied++;
+            if (!record.isContinued()) {
+                inAddedRun = false;
+                adding = null;
+                // Only between events, never inside a compound run: a checkpoint that falls
+                // due mid-event is taken at the end of it
+                if (applied >= nextCheckpointAt) {
+                    checkpoint(record);
+                    nextCheckpointAt = nextBoundary(applied);
+                }
+            }
+            return true;
+        }
+
+        private Device create(EventJournal.Cursor record) {
+            long high = record.getDeviceIdHigh(), low = record.getDeviceIdLow();
+            try {
+                Device device = Device.instantiate(record.getNewText(), high, low);
+                devices.remove(probe(record)); // Re-added: the new state replaces the old one
+                devices.put(new DeviceId(high, low), device);
+                return device;
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Skipping device of unknown type " + record.getNewText() + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        private DeviceId probe(EventJournal.Cursor record) {
+            probe.high = record.getDeviceIdHigh();
+            probe.low = record.getDeviceIdLow();
+            return probe;
+        }
+
+        private String textOf(EventJournal.Cursor record) {
+            return record.getKind() == DeviceEvent.ValueKind.TEXT ? record.getNewText() : null;
+        }
+
+        private void checkpoint(EventJournal.Cursor record) {
+            Checkpoint last = checkpoints.isEmpty() ? null : checkpoints.get(checkpoints.size() - 1);
+            if (last != null && last.nextPosition > record.getPosition()) return; // Already have it
+            List<DeviceEvent> state = new ArrayList<>(devices.size());
+            for (Device device : devices.values()) {
+                state.add(device.describeState());
+            }
+            checkpoints.add(new Checkpoint(record.getNextPosition(), maxTimestamp, applied, state));
+        }
+
+        void restore(Checkpoint checkpoint) {
+            for (DeviceEvent state : checkpoint.state) {
+                try {
+                    Device device = Device.restore(state);
+                    devices.put(new DeviceId(device.getIdHigh(), device.getIdLow()), device);
+                } catch (ReflectiveOperationException e) {
+                    System.err.println("Skipping device of unknown type: " + e.getMessage());
+                }
+            }
+            maxTimestamp = checkpoint.maxTimestamp;
+            applied = checkpoint.applied;
+            nextCheckpointAt = nextBoundary(applied);
+        }
+
+        // Every replay checkpoints at the same multiples of the interval
+        private long nextBoundary(long count) {
+            return (count / checkpointInterval + 1) * checkpointInterval;
+        }
+    }
+
+    // The two halves of a device UUID, as the journal stores them
+    private static final class DeviceId {
+        long high;
+        long low;
+
+        DeviceId(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof DeviceId)) return false;
+            DeviceId id = (DeviceId) other;
+            return high == id.high && low == id.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high ^ low);
+        }
+    }
+
+    // Full device state with every record before nextPosition applied
+    private static final class Checkpoint {
+        final long nextPosition;
+        final long maxTimestamp;
+        final long applied;
+        final List<DeviceEvent> state;
+
+        Checkpoint(long nextPosition, long maxTimestamp, long applied, List<DeviceEvent> state) {
+            this.nextPosition = nextPosition;
+            this.maxTimestamp = maxTimestamp;
+            this.applied = applied;
+            this.state = state;
+        }
+    }
+}
\ No newline at end of file
@@ -1,53 +1,113 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.List;
+import java.util.Objects;
 
 public class Light extends Device implements Serializable {
     private static final long serialVersionUID = 1L;
     private int brightness; // 0-100%
-    private String color;   // "warm", "cool", "daylight"
+    private LightColor color;
     
     public Light(String name) {
         super(name);
         this.brightness = 50;
-        this.color = "warm";
+        this.color = LightColor.WARM;
     }
     
     @Override
-    public String getStatus() {
-        if (!isOn) return String.format("%s: OFF", name);
-        return String.format("%s: ON, Brightness: %d%%, Color: %s", name, brightness, color);
+    protected void renderStatus(StringBuilder sb) {
+        sb.append(name);
+        if (!isOn) {
+            sb.append(": OFF");
+            return;
+        }
+        sb.append(": ON, Brightness: ").append(brightness).append("%, Color: ").append(color);
     }
     
     @Override
     public void toggle() {
         isOn = !isOn;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.POWER, !isOn, isOn);
     }
     
     @Override
     public void turnOn() {
+        boolean wasOn = isOn;
         isOn = true;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.POWER, wasOn, true);
     }
     
     @Override
     public void turnOff() {
+        boolean wasOn = isOn;
         isOn = false;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.POWER, wasOn, false);
     }
     
     public void setBrightness(int brightness) {
         if (brightness >= 0 && brightness <= 100) {
-            this.brightness = brightness;
-            if (!isOn) turnOn();
-            notifyObservers();
+            int oldBrightness = this.brightness;
+            beginUpdate(); // Turning on and the new brightness go out as one event
+            try {
+                this.brightness = brightness;
+                if (!isOn) turnOn();
+                firePropertyChange(DeviceEvent.BRIGHTNESS, oldBrightness, brightness);
+            } finally {
+                endUpdate();
+            }
         }
     }
     
-    public void setColor(String color) {
+    public void setColor(LightColor color) {
+        Objects.requireNonNull(color, "color");
+        LightColor oldColor = this.color;
         this.color = color;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.COLOR, oldColor, color);
+    }
+    
+    // Throws IllegalArgumentException for anything but "warm", "cool" or "daylight"
+    public void setColor(String color) {
+        setColor(LightColor.parse(color));
     }
     
     public int getBrightness() { return brightness; }
-    public String getColor() { return color; }
+    public LightColor getColor() { return color; }
+    
+    @Override
+    protected void captureState(List<DeviceEvent> state) {
+        super.captureState(state);
+        state.add(DeviceEvent.ofInt(this, DeviceEvent.BRIGHTNESS, brightness, brightness));
+        state.add(DeviceEvent.ofChoice(this, DeviceEvent.COLOR, color, color));
+    }
+    
+    @Override
+    protected boolean restoreState(String property, long value, String text) {
+        switch (property) {
+            case DeviceEvent.BRIGHTNESS: brightness = (int) value; return true;
+            case DeviceEvent.COLOR: color = text != null ? LightColor.parse(text) : LightColor.of((int) value); return true;
+            default: return super.restoreState(property, value, text);
+        }
+    }
+    
+    // Java serialization keeps the color as text, as files saved before the enum have it
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("brightness", int.class),
+        new ObjectStreamField("color", String.class)
+    };
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("brightness", brightness);
+        fields.put("color", color.toString());
+        out.writeFields();
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        brightness = fields.get("brightness", 50);
+        color = LightColor.parse((String) fields.get("color", "warm"));
+    }
 }
\ No newline at end of file
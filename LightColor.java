@@ -0,0 +1,27 @@
+import java.util.Locale;
+
+// Color temperature of a light. Ordinals are stored in saved files and the journal:
+// only ever append new colors.
+public enum LightColor {
+    WARM, COOL, DAYLIGHT;
+
+    private static final LightColor[] VALUES = values();
+
+    // "warm", "cool" or "daylight", as shown and saved as text
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public static LightColor of(int ordinal) {
+        if (ordinal < 0 || ordinal >= VALUES.length) throw new IllegalArgumentException("Unknown light color " + ordinal);
+        return VALUES[ordinal];
+    }
+
+    public static LightColor parse(String text) {
+        for (LightColor color : VALUES) {
+            if (color.toString().equalsIgnoreCase(text)) return color;
+        }
+        throw new IllegalArgumentException("Unknown light color: " + text);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,14 @@
+// Plain text notification from the controller, e.g. "Device added: Bedroom Light"
+public class MessageEvent extends HomeEvent {
+    private final String text;
+
+    public MessageEvent(String text) {
+        super(System.currentTimeMillis());
+        this.text = text;
+    }
+
+    @Override
+    protected String render() {
+        return text;
+    }
+}
\ No newline at end of file
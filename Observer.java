@@ -1,3 +1,8 @@
 public interface Observer {
     void update(String message);
+    
+    // Structured events arrive here; observers that only want text get the rendered message
+    default void onEvent(HomeEvent event) {
+        update(event.getMessage());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded queue in front of a single observer, drained on the observer's own thread.
+// BLOCK uses the lock-free ring buffer; the dropping policies use a small locked queue,
+// since they have to remove or replace entries that are already queued.
+public abstract class ObserverQueue {
+    private final OverflowPolicy policy;
+    private final int capacity;
+
+    ObserverQueue(OverflowPolicy policy, int capacity) {
+        this.policy = policy;
+        this.capacity = capacity;
+    }
+
+    static ObserverQueue create(OverflowPolicy policy, int capacity, Observer observer) {
+        if (capacity < 1) throw new IllegalArgumentException("Queue capacity must be at least 1");
+        if (policy == OverflowPolicy.BLOCK) return new Blocking(capacity, observer);
+        return new Dropping(policy, capacity, observer);
+    }
+
+    public OverflowPolicy getPolicy() { return policy; }
+    public int getCapacity() { return capacity; }
+
+    // Events waiting in the queue
+    public abstract long getDepth();
+
+    // Events discarded because the queue was full
+    public abstract long getDropped();
+
+    abstract void offer(HomeEvent event);
+
+    // Stops accepting events; what is already queued is still delivered
+    abstract void close();
+
+    private static String threadName(Observer observer) {
+        return observer.getClass().getSimpleName();
+    }
+
+    private static void deliver(Observer observer, HomeEvent event) {
+        try {
+            observer.onEvent(event);
+        } catch (RuntimeException e) {
+            System.err.println("Error delivering event: " + e.getMessage());
+        }
+    }
+
+    private static final class Blocking extends ObserverQueue {
+        private final RingBufferEventBus<HomeEvent> ring;
+        private final Object consumer;
+
+        Blocking(int capacity, Observer observer) {
+            super(OverflowPolicy.BLOCK, ringSize(capacity));
+            this.ring = new RingBufferEventBus<>(getCapacity());
+            this.consumer = ring.subscribe(threadName(observer), (event, endOfBatch) -> deliver(observer, event));
+        }
+
+        // The ring needs a power of two
+        private static int ringSize(int capacity) {
+            return capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        }
+
+        @Override
+        public long getDepth() {
+            return ring.getBacklog();
+        }
+
+        @Override
+        public long getDropped() {
+            return 0;
+        }
+
+        @Override
+        void offer(HomeEvent event) {
+            ring.publish(event);
+        }
+
+        @Override
+        void close() {
+            ring.unsubscribe(consumer);
+            ring.shutdown();
+        }
+    }
+
+    private static final class Dropping extends ObserverQueue {
+        private final Observer observer;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Map<Object, HomeEvent> pending = new LinkedHashMap<>(); // Conflation key -> event, oldest first
+        private volatile int depth;
+        private volatile long dropped;
+        private boolean closed;
+
+        Dropping(OverflowPolicy policy, int capacity, Observer observer) {
+            super(policy, capacity);
+            this.observer = observer;
+            Thread thread = new Thread(this::run, "event-queue-" + threadName(observer));
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public long getDepth() {
+            return depth;
+        }
+
+        @Override
+        public long getDropped() {
+            return dropped;
+        }
+
+        @Override
+        void offer(HomeEvent event) {
+            lock.lock();
+            try {
+                if (closed) return;
+                if (getPolicy() == OverflowPolicy.CONFLATE_LATEST && event instanceof DeviceEvent) {
+                    conflate((DeviceEvent) event);
+                } else {
+                    append(event, event);
+                }
+                depth = pending.size();
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Keeps one entry per device in its original place, so the observer sees the net
+        // change since it last caught up
+        private void conflate(DeviceEvent event) {
+            Long key = event.getDeviceKey();
+            HomeEvent queued = pending.get(key);
+            if (queued == null) {
+                append(key, event);
+                return;
+            }
+            DeviceEvent combined = DeviceEvent.combine((DeviceEvent) queued, event);
+            if (combined == null) {
+                pending.remove(key);
+            } else {
+                pending.put(key, combined);
+            }
+        }
+
+        private void append(Object key, HomeEvent event) {
+            if (pending.size() >= getCapacity()) {
+                if (getPolicy() == OverflowPolicy.DROP_NEWEST) {
+                    dropped++;
+                    return;
+                }
+                Iterator<HomeEvent> oldest = pending.values().iterator();
+                oldest.next();
+                oldest.remove();
+                dropped++;
+            }
+            pending.put(key, event);
+        }
+
+        @Override
+        void close() {
+            lock.lock();
+            try {
+                closed = true;
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Takes one event at a time, so what waits here never exceeds the capacity
+        private void run() {
+            while (true) {
+                HomeEvent event;
+                lock.lock();
+                try {
+                    while (pending.isEmpty() && !closed) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    if (pending.isEmpty()) return; // Closed and drained
+                    Iterator<HomeEvent> oldest = pending.values().iterator();
+                    event = oldest.next();
+                    oldest.remove();
+                    depth = pending.size();
+                } finally {
+                    lock.unlock();
+                }
+                deliver(observer, event);
+            }
+        }
+    }
+}
\ No newline at end of file
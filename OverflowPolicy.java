@@ -0,0 +1,7 @@
+// What an observer's queue does when events arrive faster than the observer handles them
+public enum OverflowPolicy {
+    BLOCK,           // Publisher waits for room, nothing is lost
+    DROP_OLDEST,     // Oldest queued event makes room for the new one
+    DROP_NEWEST,     // New event is discarded
+    CONFLATE_LATEST  // Queued events for the same device merge into one, otherwise drop oldest
+}
\ No newline at end of file
@@ -0,0 +1,148 @@
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Bounded, preallocated ring buffer between the threads that change devices and the
+// observers that report on them. Publishing claims a slot and writes a reference, and
+// each subscriber drains in batches on its own thread. A publisher only waits when the
+// slowest subscriber is a full ring behind.
+public class RingBufferEventBus<E> {
+    public static final int DEFAULT_CAPACITY = 8192;
+    private static final long IDLE_PARK_NANOS = 1_000_000; // Re-check now and then in case a wake-up was missed
+
+    public interface Handler<E> {
+        void onEvent(E event, boolean endOfBatch);
+    }
+
+    private final Object[] entries;
+    private final AtomicLongArray published; // Sequence last written to each slot
+    private final int mask;
+    private final AtomicLong cursor;         // Last claimed sequence
+    private final CopyOnWriteArrayList<Subscriber<E>> subscribers;
+    private volatile boolean running;
+
+    public RingBufferEventBus(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.entries = new Object[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        this.mask = capacity - 1;
+        this.cursor = new AtomicLong(-1);
+        this.subscribers = new CopyOnWriteArrayList<>();
+        this.running = true;
+    }
+
+    public void publish(E event) {
+        if (!running) return;
+        long seq = cursor.incrementAndGet();
+        long wrapPoint = seq - entries.length;
+        while (wrapPoint > minimumSequence()) {
+            LockSupport.parkNanos(1000);
+        }
+        int index = (int) seq & mask;
+        entries[index] = event;
+        published.set(index, seq);
+
+        for (Subscriber<E> subscriber : subscribers) {
+            if (subscriber.sleeping) LockSupport.unpark(subscriber.thread);
+        }
+    }
+
+    // Starts a new consumer thread that sees every event published from now on
+    public Object subscribe(String name, Handler<E> handler) {
+        Subscriber<E> subscriber = new Subscriber<>(this, handler, cursor.get());
+        subscribers.add(subscriber);
+        subscriber.thread = new Thread(subscriber::run, "event-bus-" + name);
+        subscriber.thread.setDaemon(true);
+        subscriber.thread.start();
+        return subscriber;
+    }
+
+    public void unsubscribe(Object subscription) {
+        if (subscription instanceof Subscriber && subscribers.remove(subscription)) {
+            Subscriber<?> subscriber = (Subscriber<?>) subscription;
+            subscriber.active = false;
+            LockSupport.unpark(subscriber.thread);
+        }
+    }
+
+    // Stops accepting events and lets every subscriber drain what is already queued
+    public void shutdown() {
+        running = false;
+        for (Subscriber<E> subscriber : subscribers) {
+            subscriber.active = false;
+            LockSupport.unpark(subscriber.thread);
+        }
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    // Events published but not yet handled by the slowest subscriber
+    public long getBacklog() {
+        return subscribers.isEmpty() ? 0 : cursor.get() - minimumSequence();
+    }
+
+    private long minimumSequence() {
+        long min = Long.MAX_VALUE;
+        for (Subscriber<E> subscriber : subscribers) {
+            min = Math.min(min, subscriber.sequence);
+        }
+        return min == Long.MAX_VALUE ? cursor.get() : min;
+    }
+
+    private static final class Subscriber<E> {
+        private final RingBufferEventBus<E> bus;
+        private final Handler<E> handler;
+        volatile long sequence; // Last sequence fully handled
+        volatile boolean sleeping;
+        volatile boolean active;
+        Thread thread;
+
+        Subscriber(RingBufferEventBus<E> bus, Handler<E> handler, long start) {
+            this.bus = bus;
+            this.handler = handler;
+            this.sequence = start;
+            this.active = true;
+        }
+
+        @SuppressWarnings("unchecked")
+        void run() {
+            long next = sequence + 1;
+            while (true) {
+                long available = next - 1;
+                while (available - next + 1 < bus.entries.length
+                        && bus.published.get((int) (available + 1) & bus.mask) == available + 1) {
+                    available++;
+                }
+
+                if (available >= next) {
+                    for (long seq = next; seq <= available; seq++) {
+                        E event = (E) bus.entries[(int) seq & bus.mask];
+                        try {
+                            handler.onEvent(event, seq == available);
+                        } catch (RuntimeException e) {
+                            System.err.println("Error delivering event: " + e.getMessage());
+                        }
+                    }
+                    sequence = available;
+                    next = available + 1;
+                    continue;
+                }
+
+                if (!active) return; // Nothing left to drain
+                sleeping = true;
+                if (bus.published.get((int) next & bus.mask) != next && active) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -1,53 +1,159 @@
 import java.io.Serializable;
+import java.time.Instant;
 import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Objects;
 
 public class ScheduledTask implements Serializable {
     private static final long serialVersionUID = 1L;
     private String id;
     private String deviceName;
     private String action;
-    private LocalTime executionTime;
+    private LocalTime executionTime; // Kept for files saved before schedules existed
     private boolean enabled;
     private boolean recurring;
+    private TaskSchedule schedule;
+    transient long registrySeq;
+    transient TaskRegistry registry; // Set while the task is registered with a controller
+    transient TaskScheduler scheduler; // Set while the task is queued for execution
+    transient int scheduleGeneration;
+    transient long nextFireTime; // Cached epoch millis of the next run, 0 when not armed
+    transient DeviceCommand command; // Compiled from action, rebuilt after loading
+    private transient volatile long version; // Bumped by every setter that changes something
     
+    // Throws IllegalArgumentException if the action can't be compiled or the time can't
+    // be parsed
     public ScheduledTask(String deviceName, String action, String time, boolean recurring) {
-        this.id = java.util.UUID.randomUUID().toString();
+        this(deviceName, action, TaskSchedule.parse(time, recurring));
+    }
+    
+    public ScheduledTask(String deviceName, String action, TaskSchedule schedule) {
+        this.command = DeviceCommand.compile(action);
+        this.id = Ids.randomUuid().toString();
         this.deviceName = deviceName;
         this.action = action;
         this.enabled = true;
-        this.recurring = recurring;
-        
-        try {
-            this.executionTime = LocalTime.parse(time, DateTimeFormatter.ofPattern("H:mm"));
-        } catch (DateTimeParseException e) {
-            this.executionTime = LocalTime.now();
-        }
+        applySchedule(schedule);
+    }
+    
+    // Rebuilds a saved task under its original id
+    ScheduledTask(String id, String deviceName, String action, TaskSchedule schedule, boolean enabled) {
+        this(deviceName, action, schedule);
+        this.id = id;
+        this.enabled = enabled;
     }
     
     public String getId() { return id; }
     public String getDeviceName() { return deviceName; }
     public String getAction() { return action; }
-    public LocalTime getExecutionTime() { return executionTime; }
     public boolean isEnabled() { return enabled; }
     public boolean isRecurring() { return recurring; }
+    public long getNextFireTime() { return nextFireTime; }
+    
+    // Time of day for daily and one-time tasks, null for interval and cron schedules
+    public LocalTime getExecutionTime() { return executionTime; }
+    
+    public DeviceCommand getCommand() {
+        if (command == null) {
+            // Loaded from a file, the action text is the only thing saved
+            command = DeviceCommand.compile(action);
+        }
+        return command;
+    }
+    
+    public TaskSchedule getSchedule() {
+        if (schedule == null) {
+            // Loaded from a file written before schedules existed
+            schedule = TaskSchedule.at(executionTime, recurring);
+        }
+        return schedule;
+    }
+    
+    // Changes since the task was created or loaded; equal versions mean equal state
+    public long getVersion() { return version; }
     
     // THESE WERE MISSING - ADD THESE METHODS
-    public void setEnabled(boolean enabled) { this.enabled = enabled; }
-    public void setExecutionTime(LocalTime time) { this.executionTime = time; }
-    public void setAction(String action) { this.action = action; }
-    public void setDeviceName(String deviceName) { this.deviceName = deviceName; }
-    public void setRecurring(boolean recurring) { this.recurring = recurring; }
+    public void setEnabled(boolean enabled) {
+        if (enabled != this.enabled) version++;
+        this.enabled = enabled;
+        if (scheduler != null) scheduler.reschedule(this);
+        if (registry != null) registry.taskChanged(this);
+    }
+    public void setExecutionTime(LocalTime time) {
+        TaskSchedule current = getSchedule();
+        if (current instanceof TaskSchedule.TimeOfDay) {
+            setSchedule(new TaskSchedule.TimeOfDay(time, ((TaskSchedule.TimeOfDay) current).getWeekdays()));
+        } else {
+            setSchedule(TaskSchedule.at(time, recurring));
+        }
+    }
+    public void setAction(String action) {
+        this.command = DeviceCommand.compile(action);
+        if (!action.equals(this.action)) version++;
+        this.action = action;
+        if (registry != null) registry.taskChanged(this);
+    }
+    public void setDeviceName(String deviceName) {
+        if (!Objects.equals(deviceName, this.deviceName)) version++;
+        this.deviceName = deviceName;
+        if (registry != null) registry.taskChanged(this);
+    }
+    // Only switches daily and one-time tasks, interval and cron schedules always repeat
+    public void setRecurring(boolean recurring) {
+        if (executionTime != null && recurring != this.recurring) {
+            setSchedule(TaskSchedule.at(executionTime, recurring));
+        }
+    }
+    public void setSchedule(TaskSchedule schedule) {
+        version++;
+        applySchedule(schedule);
+        if (scheduler != null) scheduler.reschedule(this);
+        if (registry != null) registry.taskChanged(this);
+    }
     
     public String getTimeAsString() {
-        return executionTime.format(DateTimeFormatter.ofPattern("H:mm"));
+        return getSchedule().getTimeText();
+    }
+    
+    // Works out the first run from now and caches it. Called by the scheduler when the
+    // task is armed, so the schedule is evaluated once per run rather than on every tick.
+    long armFrom(long nowMillis, ZoneId zone) {
+        TaskSchedule current = getSchedule();
+        nextFireTime = computeNext(current, nowMillis - current.getGraceMillis(), zone);
+        return nextFireTime;
+    }
+    
+    // Next run after one that just fired. Runs missed while the machine was busy or asleep are skipped.
+    long advance(long firedAt, long nowMillis, ZoneId zone) {
+        TaskSchedule current = getSchedule();
+        nextFireTime = current.isRecurring()
+                ? computeNext(current, Math.max(firedAt, nowMillis - current.getGraceMillis()), zone)
+                : 0;
+        return nextFireTime;
+    }
+    
+    private static long computeNext(TaskSchedule schedule, long afterMillis, ZoneId zone) {
+        ZonedDateTime next = schedule.nextAfter(ZonedDateTime.ofInstant(Instant.ofEpochMilli(afterMillis), zone));
+        return next == null ? 0 : next.toInstant().toEpochMilli();
+    }
+    
+    private void applySchedule(TaskSchedule schedule) {
+        this.schedule = schedule;
+        this.recurring = schedule.isRecurring();
+        if (schedule instanceof TaskSchedule.TimeOfDay) {
+            this.executionTime = ((TaskSchedule.TimeOfDay) schedule).getTime();
+        } else if (schedule instanceof TaskSchedule.Once) {
+            this.executionTime = ((TaskSchedule.Once) schedule).getTime();
+        } else {
+            this.executionTime = null;
+        }
     }
     
     @Override
     public String toString() {
-        return String.format("Task: %s %s at %s (%s)", 
-                           deviceName, action, getTimeAsString(), 
-                           recurring ? "Daily" : "One-time");
+        return String.format("Task: %s %s at %s (%s)",
+                           deviceName, action, getTimeAsString(),
+                           getSchedule().describe());
     }
 }
\ No newline at end of file
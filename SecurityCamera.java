@@ -1,4 +1,7 @@
+import java.util.List;
+
 public class SecurityCamera extends Device {
+    private static final long serialVersionUID = -4490452984121685620L;
     private boolean isRecording;
     private String location;
     private int resolution; // 720, 1080, 4K
@@ -11,47 +14,82 @@ public class SecurityCamera extends Device {
     }
     
     @Override
-    public String getStatus() {
-        return String.format("%s (%s): %s, Recording: %s, Resolution: %dp", 
-                           name, location, isOn ? "ON" : "OFF", 
-                           isRecording ? "YES" : "NO", resolution);
+    protected void renderStatus(StringBuilder sb) {
+        sb.append(name).append(" (").append(location).append("): ").append(isOn ? "ON" : "OFF")
+          .append(", Recording: ").append(isRecording ? "YES" : "NO")
+          .append(", Resolution: ").append(resolution).append('p');
     }
     
     @Override
     public void toggle() {
-        isOn = !isOn;
-        if (!isOn) isRecording = false;
-        notifyObservers();
+        if (isOn) {
+            turnOff();
+        } else {
+            turnOn();
+        }
     }
     
     @Override
     public void turnOn() {
+        boolean wasOn = isOn;
         isOn = true;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.POWER, wasOn, true);
     }
     
     @Override
     public void turnOff() {
+        boolean wasOn = isOn;
+        boolean wasRecording = isRecording;
         isOn = false;
         isRecording = false;
-        notifyObservers();
+        beginUpdate();
+        try {
+            firePropertyChange(DeviceEvent.RECORDING, wasRecording, false);
+            firePropertyChange(DeviceEvent.POWER, wasOn, false);
+        } finally {
+            endUpdate();
+        }
     }
     
     public void toggleRecording() {
         if (isOn) {
             isRecording = !isRecording;
-            notifyObservers();
+            firePropertyChange(DeviceEvent.RECORDING, !isRecording, isRecording);
         }
     }
     
     public void setResolution(int resolution) {
         if (resolution == 720 || resolution == 1080 || resolution == 2160) {
+            int oldResolution = this.resolution;
             this.resolution = resolution;
-            notifyObservers();
+            firePropertyChange(DeviceEvent.RESOLUTION, oldResolution, resolution);
         }
     }
     
     public boolean isRecording() { return isRecording; }
     public String getLocation() { return location; }
+    public void setLocation(String location) {
+        String oldLocation = this.location;
+        this.location = location;
+        firePropertyChange(DeviceEvent.LOCATION, oldLocation, location);
+    }
     public int getResolution() { return resolution; }
+    
+    @Override
+    protected void captureState(List<DeviceEvent> state) {
+        super.captureState(state);
+        state.add(DeviceEvent.ofBoolean(this, DeviceEvent.RECORDING, isRecording, isRecording));
+        state.add(DeviceEvent.ofText(this, DeviceEvent.LOCATION, location, location));
+        state.add(DeviceEvent.ofInt(this, DeviceEvent.RESOLUTION, resolution, resolution));
+    }
+    
+    @Override
+    protected boolean restoreState(String property, long value, String text) {
+        switch (property) {
+            case DeviceEvent.RECORDING: isRecording = value != 0; return true;
+            case DeviceEvent.LOCATION: location = text; return true;
+            case DeviceEvent.RESOLUTION: resolution = (int) value; return true;
+            default: return super.restoreState(property, value, text);
+        }
+    }
 }
\ No newline at end of file
@@ -1,189 +1,315 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.time.LocalTime;
+import java.util.function.Function;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class SmartHomeController implements Observer {
     private static SmartHomeController instance;
-    private List<Device> devices;
-    private List<ScheduledTask> scheduledTasks;
-    private Timer schedulerTimer;
-    private List<Observer> systemObservers;
-    
-    private SmartHomeController() {
-        devices = new ArrayList<>();
-        scheduledTasks = new ArrayList<>();
-        systemObservers = new ArrayList<>();
+    private volatile HomeState state;
+    // Adding and removing share the read side, so they still run concurrently; only
+    // replaceState() takes the write side, to swap in a whole new state
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private TaskScheduler scheduler;
+    private TaskDispatcher dispatcher;
+    private EventRouter eventRouter;
+    private OverflowPolicy observerPolicy;
+    private volatile EventJournal journal;
+    private volatile WriteAheadLog changeLog;
+    
+    private SmartHomeController(boolean useConfiguredJournal) {
+        state = new HomeState(new DeviceRegistry(), new TaskRegistry());
+        state.tasks.setChangeListener(this::taskEdited);
+        eventRouter = new EventRouter(Integer.getInteger("smarthome.eventBusCapacity", RingBufferEventBus.DEFAULT_CAPACITY));
+        observerPolicy = OverflowPolicy.valueOf(System.getProperty("smarthome.observerPolicy", OverflowPolicy.BLOCK.name()));
         initializeScheduler();
+        String journalDir = System.getProperty("smarthome.journalDir");
+        if (useConfiguredJournal && journalDir != null) {
+            try {
+                openJournal(Paths.get(journalDir));
+            } catch (IOException e) {
+                System.err.println("Error opening event journal: " + e.getMessage());
+            }
+        }
     }
     
     public static synchronized SmartHomeController getInstance() {
         if (instance == null) {
-            instance = new SmartHomeController();
+            instance = new SmartHomeController(true);
         }
         return instance;
     }
     
+    // A separate controller that is not the shared instance and writes no journal,
+    // e.g. to hold state rebuilt from a journal. Call shutdown() when done with it.
+    public static SmartHomeController createStandalone() {
+        return new SmartHomeController(false);
+    }
+    
     public void addDevice(Device device) {
-        devices.add(device);
-        device.addObserver(this);
+        stateLock.readLock().lock();
+        try {
+            if (!state.devices.add(device)) return; // Already registered
+            device.addObserver(this);
+            EventJournal j = journal;
+            if (j != null) {
+                j.append(device.describeState());
+            }
+            WriteAheadLog wal = changeLog;
+            if (wal != null) {
+                wal.deviceChanged(device);
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
         notifySystemObservers("Device added: " + device.getName());
     }
     
+    // Registers many devices at once, e.g. when loading saved state: observers get a single
+    // "Loaded N devices" message instead of one per device. Returns how many were new.
+    public int addDevices(Collection<? extends Device> toAdd) {
+        List<Device> added;
+        stateLock.readLock().lock();
+        try {
+            added = state.devices.addAll(toAdd);
+            attach(added);
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (!added.isEmpty()) {
+            notifySystemObservers("Loaded " + added.size() + " devices");
+        }
+        return added.size();
+    }
+    
     public void removeDevice(String deviceId) {
-        Device deviceToRemove = null;
-        for (Device device : devices) {
-            if (device.getId().equals(deviceId)) {
-                deviceToRemove = device;
-                break;
+        removeDevice(devices -> devices.remove(deviceId));
+    }
+    
+    public void removeDevice(long key) {
+        removeDevice(devices -> devices.remove(key));
+    }
+    
+    private void removeDevice(Function<DeviceRegistry, Device> removal) {
+        Device deviceToRemove;
+        stateLock.readLock().lock();
+        try {
+            deviceToRemove = removal.apply(state.devices);
+            if (deviceToRemove == null) return;
+            deviceToRemove.removeObserver(this);
+            EventJournal j = journal;
+            if (j != null) {
+                j.append(DeviceEvent.ofText(deviceToRemove, DeviceEvent.REMOVED, deviceToRemove.getName(), null));
             }
+            WriteAheadLog wal = changeLog;
+            if (wal != null) {
+                wal.deviceRemoved(deviceToRemove.getId());
+            }
+        } finally {
+            stateLock.readLock().unlock();
         }
-        
-        if (deviceToRemove != null) {
-            devices.remove(deviceToRemove);
-            notifySystemObservers("Device removed: " + deviceToRemove.getName());
-        }
+        notifySystemObservers("Device removed: " + deviceToRemove.getName());
     }
     
+    // Read-only, and the same list is handed out until a device is added or removed
     public List<Device> getDevices() {
-        return new ArrayList<>(devices);
+        return state.devices.getAll();
+    }
+    
+    public Snapshot<Device> getDeviceSnapshot() {
+        return state.devices.snapshot();
+    }
+    
+    public boolean devicesChangedSince(long version) {
+        return state.devices.getVersion() > version;
     }
     
     public Device getDeviceById(String deviceId) {
-        for (Device device : devices) {
-            if (device.getId().equals(deviceId)) {
-                return device;
-            }
-        }
-        return null;
+        return state.devices.getById(deviceId);
+    }
+    
+    public Device getDeviceByKey(long key) {
+        return state.devices.getByKey(key);
+    }
+    
+    public Device getDeviceByName(String name) {
+        return state.devices.getFirstByName(name);
     }
     
     public List<Device> getDevicesByType(Class<?> type) {
-        List<Device> filteredDevices = new ArrayList<>();
-        for (Device device : devices) {
-            if (type.isInstance(device)) {
-                filteredDevices.add(device);
-            }
-        }
-        return filteredDevices;
+        return state.devices.getByType(type);
     }
     
+    // Throws IllegalArgumentException if the task's action is invalid or can't apply to its device
     public void addScheduledTask(ScheduledTask task) {
-        scheduledTasks.add(task);
+        stateLock.readLock().lock();
+        try {
+            HomeState current = state;
+            checkApplies(task, current.devices);
+            if (!current.tasks.add(task)) return; // Already scheduled
+            scheduler.schedule(task);
+            WriteAheadLog wal = changeLog;
+            if (wal != null) {
+                wal.taskChanged(task);
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
         notifySystemObservers("Scheduled task added: " + task.toString());
     }
     
     public void removeScheduledTask(String taskId) {
-        ScheduledTask taskToRemove = null;
-        for (ScheduledTask task : scheduledTasks) {
-            if (task.getId().equals(taskId)) {
-                taskToRemove = task;
-                break;
-            }
-        }
-        
+        ScheduledTask taskToRemove = forgetTask(taskId);
         if (taskToRemove != null) {
-            scheduledTasks.remove(taskToRemove);
             notifySystemObservers("Scheduled task removed: " + taskToRemove.toString());
         }
     }
     
+    // Drops a task from the store, the scheduler and the change log, null if it was not there
+    private ScheduledTask forgetTask(String taskId) {
+        stateLock.readLock().lock();
+        try {
+            ScheduledTask task = state.tasks.remove(taskId);
+            if (task == null) return null;
+            scheduler.cancel(task);
+            WriteAheadLog wal = changeLog;
+            if (wal != null) {
+                wal.taskRemoved(taskId);
+            }
+            return task;
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+    
+    // Read-only, same caching as getDevices()
     public List<ScheduledTask> getScheduledTasks() {
-        return new ArrayList<>(scheduledTasks);
+        return state.tasks.getAll();
     }
     
-    private void initializeScheduler() {
-        schedulerTimer = new Timer();
-        schedulerTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                checkAndExecuteScheduledTasks();
-            }
-        }, 0, 60000); // Check every minute
+    public Snapshot<ScheduledTask> getTaskSnapshot() {
+        return state.tasks.snapshot();
+    }
+    
+    public boolean tasksChangedSince(long version) {
+        return state.tasks.getVersion() > version;
     }
     
-    private void checkAndExecuteScheduledTasks() {
-        LocalTime now = LocalTime.now();
-        List<ScheduledTask> tasksToRemove = new ArrayList<>();
+    // Replaces every device and task in one step, e.g. to reload saved state. The new
+    // registries are filled on the calling thread first and then published together, so
+    // readers see either the old state or the new one, never a mix or both. Tasks whose
+    // action doesn't apply to their device are left out.
+    public void replaceState(Collection<? extends Device> newDevices, Collection<ScheduledTask> newTasks) {
+        HomeState next = new HomeState(new DeviceRegistry(), new TaskRegistry());
+        next.devices.addAll(newDevices);
+        for (ScheduledTask task : newTasks) {
+            try {
+                checkApplies(task, next.devices);
+                next.tasks.add(task);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping invalid task: " + e.getMessage());
+            }
+        }
+        next.tasks.setChangeListener(this::taskEdited);
         
-        for (ScheduledTask task : scheduledTasks) {
-            if (!task.isEnabled()) continue;
-            
-            // Check if it's time to execute
-            if (now.getHour() == task.getExecutionTime().getHour() && 
-                now.getMinute() == task.getExecutionTime().getMinute()) {
-                
-                executeScheduledTask(task);
-                
-                // If it's not recurring, mark for removal
-                if (!task.isRecurring()) {
-                    tasksToRemove.add(task);
+        stateLock.writeLock().lock();
+        try {
+            HomeState previous = state;
+            next.devices.continueAfter(previous.devices.getVersion());
+            next.tasks.continueAfter(previous.tasks.getVersion());
+            state = next;
+            previous.tasks.setChangeListener(null);
+            detach(previous, next);
+            attach(next.devices.getAll());
+            for (ScheduledTask task : next.tasks.getAll()) {
+                scheduler.schedule(task);
+                WriteAheadLog wal = changeLog;
+                if (wal != null) {
+                    wal.taskChanged(task);
                 }
             }
+        } finally {
+            stateLock.writeLock().unlock();
         }
-        
-        // Remove completed one-time tasks
-        for (ScheduledTask task : tasksToRemove) {
-            scheduledTasks.remove(task);
+        notifySystemObservers("Loaded " + next.devices.size() + " devices and " + next.tasks.size() + " tasks");
+    }
+    
+    // Throws IllegalArgumentException if the task's action is invalid or can't apply to its device
+    private static void checkApplies(ScheduledTask task, DeviceRegistry devices) {
+        DeviceCommand command = task.getCommand();
+        Device target = devices.getFirstByName(task.getDeviceName());
+        if (target != null && !command.appliesTo(target)) {
+            throw new IllegalArgumentException("Action '" + command + "' does not apply to " + target.getName());
         }
     }
     
-    private void executeScheduledTask(ScheduledTask task) {
-        for (Device device : devices) {
-            if (device.getName().equals(task.getDeviceName())) {
-                executeActionOnDevice(device, task.getAction());
-                notifySystemObservers("Executed scheduled task: " + task.toString());
-                break;
-            }
-        }
-    }
-    
-    private void executeActionOnDevice(Device device, String action) {
-        switch (action.toLowerCase()) {
-            case "turn on":
-            case "on":
-                device.turnOn();
-                break;
-            case "turn off":
-            case "off":
-                device.turnOff();
-                break;
-            case "toggle":
-                device.toggle();
-                break;
-            default:
-                // Handle specific actions for specific device types
-                handleSpecificAction(device, action);
-                break;
-        }
-    }
-    
-    private void handleSpecificAction(Device device, String action) {
-        // Parse actions like "set brightness 75" or "set temperature 22"
-        String[] parts = action.split(" ", 3);
-        if (parts.length < 2) return;
-        
-        if (device instanceof Light && "set".equals(parts[0]) && "brightness".equals(parts[1]) && parts.length == 3) {
-            try {
-                int brightness = Integer.parseInt(parts[2]);
-                ((Light) device).setBrightness(brightness);
-            } catch (NumberFormatException e) {
-                // Ignore invalid input
+    // Observes, journals and logs newly registered devices
+    private void attach(List<Device> added) {
+        EventJournal j = journal;
+        WriteAheadLog wal = changeLog;
+        for (Device device : added) {
+            device.addObserver(this);
+            if (j != null) {
+                j.append(device.describeState());
             }
-        } else if (device instanceof AirConditioner && "set".equals(parts[0]) && "temperature".equals(parts[1]) && parts.length == 3) {
-            try {
-                int temp = Integer.parseInt(parts[2]);
-                ((AirConditioner) device).setTemperature(temp);
-            } catch (NumberFormatException e) {
-                // Ignore invalid input
+            if (wal != null) {
+                wal.deviceChanged(device);
             }
-        } else if (device instanceof Fan && "set".equals(parts[0]) && "speed".equals(parts[1]) && parts.length == 3) {
-            try {
-                int speed = Integer.parseInt(parts[2]);
-                ((Fan) device).setSpeed(speed);
-            } catch (NumberFormatException e) {
-                // Ignore invalid input
+        }
+    }
+    
+    // Lets go of everything in a replaced state. Removals are logged before the new
+    // state is, and only for ids the new state doesn't have.
+    private void detach(HomeState previous, HomeState next) {
+        EventJournal j = journal;
+        WriteAheadLog wal = changeLog;
+        for (Device device : previous.devices.getAll()) {
+            device.removeObserver(this);
+            if (j != null) {
+                j.append(DeviceEvent.ofText(device, DeviceEvent.REMOVED, device.getName(), null));
+            }
+            if (wal != null && next.devices.getById(device.getId()) == null) {
+                wal.deviceRemoved(device.getId());
+            }
+        }
+        for (ScheduledTask task : previous.tasks.getAll()) {
+            scheduler.cancel(task);
+            if (wal != null && next.tasks.getById(task.getId()) == null) {
+                wal.taskRemoved(task.getId());
             }
         }
-        // Add more specific actions as needed
+    }
+    
+    private void initializeScheduler() {
+        dispatcher = new TaskDispatcher(Integer.getInteger("smarthome.maxConcurrentTasks", TaskDispatcher.DEFAULT_MAX_IN_FLIGHT));
+        scheduler = new TaskScheduler(this::runDueTask);
+        scheduler.start();
+    }
+    
+    // Limit on scheduled tasks running at once, tasks for the same device always run one at a time
+    public void setMaxConcurrentTasks(int maxConcurrentTasks) {
+        dispatcher.setMaxInFlight(maxConcurrentTasks);
+    }
+    
+    // Called by the scheduler thread once a task's execution time arrives
+    private void runDueTask(ScheduledTask task) {
+        // Keyed on the device name so tasks for one device keep their order
+        dispatcher.dispatch(task.getDeviceName(), () -> executeScheduledTask(task));
+        
+        // One-time tasks are removed once they have run
+        if (!task.isRecurring()) {
+            forgetTask(task.getId());
+        }
+    }
+    
+    private void executeScheduledTask(ScheduledTask task) {
+        Device device = state.devices.getFirstByName(task.getDeviceName());
+        if (device != null) {
+            task.getCommand().execute(device);
+            notifySystemObservers("Executed scheduled task: " + task.toString());
+        }
     }
     
     // Observer implementation
@@ -193,24 +319,142 @@ public class SmartHomeController implements Observer {
         notifySystemObservers("Device Update: " + message);
     }
     
+    // Typed device changes are journaled and routed as they are, nothing is rendered here
+    @Override
+    public void onEvent(HomeEvent event) {
+        if (event instanceof DeviceEvent) {
+            DeviceEvent deviceEvent = (DeviceEvent) event;
+            EventJournal j = journal;
+            if (j != null) {
+                j.append(deviceEvent);
+            }
+            WriteAheadLog wal = changeLog;
+            if (wal != null) {
+                Device device = state.devices.getByKey(deviceEvent.getDeviceKey());
+                if (device != null) wal.deviceChanged(device);
+            }
+        }
+        eventRouter.publish(event);
+    }
+    
+    private void taskEdited(ScheduledTask task) {
+        WriteAheadLog wal = changeLog;
+        if (wal != null) {
+            wal.taskChanged(task);
+        }
+    }
+    
+    // Change log methods
+    // From now on every device and task change is logged. The log should already hold
+    // the current state, i.e. it was just recovered into this controller or compacted.
+    public synchronized void attachChangeLog(WriteAheadLog log) {
+        log.start(this::getDevices, this::getScheduledTasks);
+        changeLog = log;
+    }
+    
+    public WriteAheadLog getChangeLog() {
+        return changeLog;
+    }
+    
+    // Event journal methods
+    // Every device event from now on is appended to the journal in the given directory.
+    // The journal starts with the full state of the devices already registered, so a
+    // replay doesn't need anything from before it was opened.
+    public synchronized void openJournal(Path directory) throws IOException {
+        EventJournal opened = new EventJournal(directory);
+        for (Device device : state.devices.getAll()) {
+            opened.append(device.describeState());
+        }
+        EventJournal previous = journal;
+        journal = opened;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+    
+    public EventJournal getJournal() {
+        return journal;
+    }
+    
     // System observer methods
+    // Each subscription drains its own bounded queue on its own thread. Only a full queue
+    // under BLOCK holds up the thread that changed the device; the other policies drop
+    // or conflate instead and count what they lose.
     public void addSystemObserver(Observer observer) {
-        systemObservers.add(observer);
+        addSystemObserver(observer, observerPolicy);
+    }
+    
+    public void addSystemObserver(Observer observer, OverflowPolicy policy) {
+        for (EventRouter.Subscription existing : eventRouter.getSubscriptions()) {
+            if (existing.getObserver() == observer && existing.getFilter().isUnfiltered()) return;
+        }
+        subscribe(EventFilter.all(), observer, policy, eventRouter.getQueueCapacity());
+    }
+    
+    // Only events matching the filter reach the observer, e.g.
+    // subscribe(EventFilter.forType(DoorLock.class), observer)
+    public EventRouter.Subscription subscribe(EventFilter filter, Observer observer) {
+        return subscribe(filter, observer, observerPolicy, eventRouter.getQueueCapacity());
+    }
+    
+    public EventRouter.Subscription subscribe(EventFilter filter, Observer observer, OverflowPolicy policy, int capacity) {
+        return eventRouter.subscribe(filter, observer, policy, capacity);
+    }
+    
+    // Queue depth and drop counts per subscription
+    public List<EventRouter.Subscription> getSubscriptions() {
+        return eventRouter.getSubscriptions();
     }
     
+    public void unsubscribe(EventRouter.Subscription subscription) {
+        eventRouter.unsubscribe(subscription);
+    }
+    
+    // Drops every subscription the observer holds
     public void removeSystemObserver(Observer observer) {
-        systemObservers.remove(observer);
+        for (EventRouter.Subscription subscription : eventRouter.getSubscriptions()) {
+            if (subscription.getObserver() == observer) {
+                eventRouter.unsubscribe(subscription);
+            }
+        }
     }
     
     private void notifySystemObservers(String message) {
-        for (Observer observer : systemObservers) {
-            observer.update(message);
-        }
+        eventRouter.publish(new MessageEvent(message));
     }
     
     public void shutdown() {
-        if (schedulerTimer != null) {
-            schedulerTimer.cancel();
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+        eventRouter.shutdown();
+        WriteAheadLog wal = changeLog;
+        if (wal != null) {
+            changeLog = null;
+            try {
+                wal.close();
+            } catch (IOException e) {
+                System.err.println("Error closing change log: " + e.getMessage());
+            }
+        }
+        EventJournal j = journal;
+        if (j != null) {
+            journal = null;
+            j.close();
+        }
+    }
+    
+    // Devices and tasks are replaced together, so they sit behind a single reference
+    private static final class HomeState {
+        final DeviceRegistry devices;
+        final TaskRegistry tasks;
+        
+        HomeState(DeviceRegistry devices, TaskRegistry tasks) {
+            this.devices = devices;
+            this.tasks = tasks;
         }
     }
 }
\ No newline at end of file
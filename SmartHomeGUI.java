@@ -9,7 +9,10 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class SmartHomeGUI extends JFrame implements Observer {
     private SmartHomeController controller;
@@ -146,9 +149,10 @@ public class SmartHomeGUI extends JFrame implements Observer {
     }
 
     private JPanel createDeviceCard(Device device) {
+        boolean on = isPowered(device);
         JPanel card = new JPanel(new BorderLayout(5, 5));
         card.setBorder(BorderFactory.createCompoundBorder(
-            BorderFactory.createLineBorder(device.isOn() ? SUCCESS_COLOR : Color.LIGHT_GRAY, 2),
+            BorderFactory.createLineBorder(on ? SUCCESS_COLOR : Color.LIGHT_GRAY, 2),
             BorderFactory.createEmptyBorder(10, 10, 10, 10)
         ));
         card.setBackground(Color.WHITE);
@@ -156,7 +160,7 @@ public class SmartHomeGUI extends JFrame implements Observer {
 
         // Device header
         JPanel headerPanel = new JPanel(new BorderLayout());
-        headerPanel.setBackground(device.isOn() ? new Color(240, 255, 240) : new Color(245, 245, 245));
+        headerPanel.setBackground(on ? new Color(240, 255, 240) : new Color(245, 245, 245));
         JLabel nameLabel = new JLabel(device.getName());
         nameLabel.setFont(new Font("Segoe UI", Font.BOLD, 16));
         nameLabel.setForeground(PRIMARY_COLOR);
@@ -171,9 +175,9 @@ public class SmartHomeGUI extends JFrame implements Observer {
         headerPanel.add(namePanel, BorderLayout.WEST);
 
         // Status indicator
-        JLabel statusLabel = new JLabel(device.isOn() ? "ON" : "OFF");
+        JLabel statusLabel = new JLabel(on ? "ON" : "OFF");
         statusLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
-        statusLabel.setForeground(device.isOn() ? SUCCESS_COLOR : WARNING_COLOR);
+        statusLabel.setForeground(on ? SUCCESS_COLOR : WARNING_COLOR);
         headerPanel.add(statusLabel, BorderLayout.EAST);
         card.add(headerPanel, BorderLayout.NORTH);
 
@@ -194,83 +198,53 @@ public class SmartHomeGUI extends JFrame implements Observer {
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 5));
         buttonPanel.setBackground(card.getBackground());
 
-        JButton toggleButton = new JButton(device.isOn() ? "🔌 Turn Off" : "💡 Turn On");
-        styleButton(toggleButton, device.isOn() ? WARNING_COLOR : SUCCESS_COLOR);
+        JButton toggleButton = new JButton(on ? "🔌 Turn Off" : "💡 Turn On");
+        styleButton(toggleButton, on ? WARNING_COLOR : SUCCESS_COLOR);
         toggleButton.setFont(new Font("Segoe UI", Font.PLAIN, 11));
         toggleButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                device.toggle();
+                // Through power where the type lets it be set, so the button does what it says
+                DeviceProperty<?> power = DeviceProperty.find(device.getClass(), DeviceEvent.POWER);
+                if (power.isWritable()) {
+                    power.setInt(device, on ? 0 : 1);
+                } else {
+                    device.toggle();
+                }
                 refreshDashboardStatus(dashboardPanel);
                 refreshDeviceTable();
             }
         });
         buttonPanel.add(toggleButton);
 
-        // Device-specific controls
-        if (device instanceof Light) {
-            JButton brightnessButton = new JButton("🌈 Adjust");
-            styleButton(brightnessButton, ACCENT_COLOR);
-            brightnessButton.setFont(new Font("Segoe UI", Font.PLAIN, 11));
-            brightnessButton.addActionListener(new ActionListener() {
-                public void actionPerformed(ActionEvent e) {
-                    showLightDialog((Light) device);
-                }
-            });
-            buttonPanel.add(brightnessButton);
-        } else if (device instanceof Fan) {
-            JButton speedButton = new JButton("🌀 Adjust");
-            styleButton(speedButton, ACCENT_COLOR);
-            speedButton.setFont(new Font("Segoe UI", Font.PLAIN, 11));
-            speedButton.addActionListener(new ActionListener() {
-                public void actionPerformed(ActionEvent e) {
-                    showFanDialog((Fan) device);
-                }
-            });
-            buttonPanel.add(speedButton);
-        } else if (device instanceof AirConditioner) {
-            JButton tempButton = new JButton("❄️ Adjust");
-            styleButton(tempButton, ACCENT_COLOR);
-            tempButton.setFont(new Font("Segoe UI", Font.PLAIN, 11));
-            tempButton.addActionListener(new ActionListener() {
-                public void actionPerformed(ActionEvent e) {
-                    showAcDialog((AirConditioner) device);
-                }
-            });
-            buttonPanel.add(tempButton);
-        } else if (device instanceof Thermostat) {
-            JButton tempButton = new JButton("🌡️ Adjust");
-            styleButton(tempButton, ACCENT_COLOR);
-            tempButton.setFont(new Font("Segoe UI", Font.PLAIN, 11));
-            tempButton.addActionListener(new ActionListener() {
-                public void actionPerformed(ActionEvent e) {
-                    showThermostatDialog((Thermostat) device);
-                }
-            });
-            buttonPanel.add(tempButton);
-        } else if (device instanceof DoorLock) {
-            JButton lockButton = new JButton(((DoorLock) device).isLocked() ? "🔓 Unlock" : "🔒 Lock");
-            styleButton(lockButton, ((DoorLock) device).isLocked() ? SUCCESS_COLOR : WARNING_COLOR);
-            lockButton.setFont(new Font("Segoe UI", Font.PLAIN, 11));
-            lockButton.addActionListener(new ActionListener() {
+        // A quick toggle for each flag the device has, and the adjust dialog for the rest
+        boolean adjustable = false;
+        for (DeviceProperty<?> property : adjustableProperties(device)) {
+            if (property.getKind() != DeviceEvent.ValueKind.BOOLEAN) {
+                adjustable = true;
+                continue;
+            }
+            JCheckBox flagBox = new JCheckBox(property.getLabel(), property.getInt(device) != 0);
+            flagBox.setBackground(buttonPanel.getBackground());
+            flagBox.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+            flagBox.addActionListener(new ActionListener() {
                 public void actionPerformed(ActionEvent e) {
-                    device.toggle();
+                    property.setInt(device, flagBox.isSelected() ? 1 : 0);
                     refreshDashboardStatus(dashboardPanel);
                     refreshDeviceTable();
                 }
             });
-            buttonPanel.add(lockButton);
-        } else if (device instanceof SecurityCamera) {
-            JButton recordButton = new JButton(((SecurityCamera) device).isRecording() ? "⏹️ Stop" : "⏺️ Record");
-            styleButton(recordButton, ((SecurityCamera) device).isRecording() ? WARNING_COLOR : SUCCESS_COLOR);
-            recordButton.setFont(new Font("Segoe UI", Font.PLAIN, 11));
-            recordButton.addActionListener(new ActionListener() {
+            buttonPanel.add(flagBox);
+        }
+        if (adjustable) {
+            JButton adjustButton = new JButton("⚙️ Adjust");
+            styleButton(adjustButton, ACCENT_COLOR);
+            adjustButton.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+            adjustButton.addActionListener(new ActionListener() {
                 public void actionPerformed(ActionEvent e) {
-                    ((SecurityCamera) device).toggleRecording();
-                    refreshDashboardStatus(dashboardPanel);
-                    refreshDeviceTable();
+                    showAdjustDialog(device);
                 }
             });
-            buttonPanel.add(recordButton);
+            buttonPanel.add(adjustButton);
         }
 
         card.add(buttonPanel, BorderLayout.SOUTH);
@@ -364,13 +338,7 @@ public class SmartHomeGUI extends JFrame implements Observer {
         if (selectedRow >= 0) {
             String deviceName = (String) deviceTableModel.getValueAt(selectedRow, 0);
             // Find the device by name
-            Device deviceToRemove = null;
-            for (Device device : controller.getDevices()) {
-                if (device.getName().equals(deviceName)) {
-                    deviceToRemove = device;
-                    break;
-                }
-            }
+            Device deviceToRemove = controller.getDeviceByName(deviceName);
             if (deviceToRemove != null) {
                 int confirm = JOptionPane.showConfirmDialog(
                     this,
@@ -380,7 +348,7 @@ public class SmartHomeGUI extends JFrame implements Observer {
                     JOptionPane.QUESTION_MESSAGE
                 );
                 if (confirm == JOptionPane.YES_OPTION) {
-                    controller.removeDevice(deviceToRemove.getId());
+                    controller.removeDevice(deviceToRemove.getKey());
                     refreshDeviceTable();
                     refreshDashboardStatus(dashboardPanel);
                     appendToLog("Device removed: " + deviceName);
@@ -482,7 +450,7 @@ public class SmartHomeGUI extends JFrame implements Observer {
         // Time selection
         gbc.gridx = 0;
         gbc.gridy = 2;
-        JLabel timeLabel = new JLabel("Time (HH:mm):");
+        JLabel timeLabel = new JLabel("Time (H:mm, cron or every 5m):");
         timeLabel.setFont(new Font("Segoe UI", Font.BOLD, 13));
         formPanel.add(timeLabel, gbc);
         gbc.gridx = 1;
@@ -518,8 +486,14 @@ public class SmartHomeGUI extends JFrame implements Observer {
                 boolean recurring = recurringCheck.isSelected();
 
                 if (deviceName != null && !deviceName.isEmpty()) {
-                    ScheduledTask task = new ScheduledTask(deviceName, action, time, recurring);
-                    controller.addScheduledTask(task);
+                    ScheduledTask task;
+                    try {
+                        task = new ScheduledTask(deviceName, action, TaskSchedule.parse(time, recurring));
+                        controller.addScheduledTask(task);
+                    } catch (IllegalArgumentException ex) {
+                        JOptionPane.showMessageDialog(SmartHomeGUI.this, ex.getMessage(), "Invalid Task", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
                     refreshTaskTable();
                     timeField.setText(LocalTime.now().format(DateTimeFormatter.ofPattern("H:mm")));
                     appendToLog("Scheduled task added: " + task.toString());
@@ -554,11 +528,16 @@ public class SmartHomeGUI extends JFrame implements Observer {
     }
 
     private void refreshDeviceComboBox(JComboBox<String> comboBox) {
+        // Skip the rebuild if no device was added, removed or renamed since last time
+        Snapshot<Device> snapshot = controller.getDeviceSnapshot();
+        Object shownVersion = comboBox.getClientProperty("devicesVersion");
+        if (shownVersion != null && !snapshot.changedSince((Long) shownVersion)) return;
+
         comboBox.removeAllItems();
-        List<Device> devices = controller.getDevices();
-        for (Device device : devices) {
+        for (Device device : snapshot.getItems()) {
             comboBox.addItem(device.getName());
         }
+        comboBox.putClientProperty("devicesVersion", snapshot.getVersion());
     }
 
     private void refreshTaskTable() {
@@ -577,15 +556,7 @@ public class SmartHomeGUI extends JFrame implements Observer {
     }
 
     private void toggleTaskEnabled(int row) {
-        ScheduledTask taskToToggle = null;
-        int rowIndex = 0;
-        for (ScheduledTask task : controller.getScheduledTasks()) {
-            if (rowIndex == row) {
-                taskToToggle = task;
-                break;
-            }
-            rowIndex++;
-        }
+        ScheduledTask taskToToggle = getTaskAtRow(row);
         if (taskToToggle != null) {
             taskToToggle.setEnabled(!taskToToggle.isEnabled());
             refreshTaskTable();
@@ -593,16 +564,14 @@ public class SmartHomeGUI extends JFrame implements Observer {
         }
     }
 
+    // Table rows follow the task snapshot order, so a row maps straight to an index
+    private ScheduledTask getTaskAtRow(int row) {
+        List<ScheduledTask> tasks = controller.getScheduledTasks();
+        return (row >= 0 && row < tasks.size()) ? tasks.get(row) : null;
+    }
+
     private void manageTask(int row) {
-        ScheduledTask taskToManage = null;
-        int rowIndex = 0;
-        for (ScheduledTask task : controller.getScheduledTasks()) {
-            if (rowIndex == row) {
-                taskToManage = task;
-                break;
-            }
-            rowIndex++;
-        }
+        ScheduledTask taskToManage = getTaskAtRow(row);
         if (taskToManage != null) {
             JDialog dialog = new JDialog(this, "Manage Scheduled Task", true);
             dialog.setLayout(new GridBagLayout());
@@ -643,7 +612,7 @@ public class SmartHomeGUI extends JFrame implements Observer {
             // Time selection
             gbc.gridx = 0;
             gbc.gridy = 2;
-            JLabel timeLabel = new JLabel("Time (HH:mm):");
+            JLabel timeLabel = new JLabel("Time (H:mm, cron or every 5m):");
             timeLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
             dialog.add(timeLabel, gbc);
             gbc.gridx = 1;
@@ -686,18 +655,18 @@ public class SmartHomeGUI extends JFrame implements Observer {
             styleButton(updateButton, SUCCESS_COLOR);
             updateButton.addActionListener(new ActionListener() {
                 public void actionPerformed(ActionEvent e) {
-                    taskToManage.setDeviceName((String) deviceCombo.getSelectedItem());
-                    taskToManage.setAction((String) actionCombo.getSelectedItem());
+                    String action = (String) actionCombo.getSelectedItem();
+                    TaskSchedule schedule;
                     try {
-                        String[] timeParts = timeField.getText().split(":");
-                        int hour = Integer.parseInt(timeParts[0]);
-                        int minute = Integer.parseInt(timeParts[1]);
-                        taskToManage.setExecutionTime(LocalTime.of(hour, minute));
-                    } catch (Exception ex) {
-                        JOptionPane.showMessageDialog(dialog, "Invalid time format. Use HH:mm", "Error", JOptionPane.ERROR_MESSAGE);
+                        DeviceCommand.compile(action); // Reject a bad action before changing anything
+                        schedule = TaskSchedule.parse(timeField.getText(), recurringCheck.isSelected());
+                    } catch (IllegalArgumentException ex) {
+                        JOptionPane.showMessageDialog(dialog, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                         return;
                     }
-                    taskToManage.setRecurring(recurringCheck.isSelected());
+                    taskToManage.setDeviceName((String) deviceCombo.getSelectedItem());
+                    taskToManage.setAction(action);
+                    taskToManage.setSchedule(schedule);
                     taskToManage.setEnabled(enabledCheck.isSelected());
                     refreshTaskTable();
                     dialog.dispose();
@@ -778,8 +747,12 @@ public class SmartHomeGUI extends JFrame implements Observer {
         typeLabel.setFont(new Font("Segoe UI", Font.BOLD, 13));
         formPanel.add(typeLabel, gbc);
         gbc.gridx = 1;
-        String[] deviceTypes = {"Light", "Fan", "AirConditioner", "Thermostat", "DoorLock", "SecurityCamera"};
-        JComboBox<String> typeCombo = new JComboBox<>(deviceTypes);
+        // Every type with registered properties, listed by class name
+        Map<String, Class<? extends Device>> deviceTypes = new LinkedHashMap<>();
+        for (Class<? extends Device> type : DeviceProperty.types()) {
+            deviceTypes.put(type.getSimpleName(), type);
+        }
+        JComboBox<String> typeCombo = new JComboBox<>(deviceTypes.keySet().toArray(new String[0]));
         typeCombo.setFont(new Font("Segoe UI", Font.PLAIN, 12));
         formPanel.add(typeCombo, gbc);
 
@@ -803,12 +776,13 @@ public class SmartHomeGUI extends JFrame implements Observer {
         formPanel.add(additionalFieldsPanel, gbc);
 
         // Update additional fields when device type changes
+        List<JComponent> editors = new ArrayList<>();
         typeCombo.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                updateAdditionalFields(additionalFieldsPanel, (String) typeCombo.getSelectedItem());
+                updateAdditionalFields(additionalFieldsPanel, deviceTypes.get((String) typeCombo.getSelectedItem()), editors);
             }
         });
-        updateAdditionalFields(additionalFieldsPanel, (String) typeCombo.getSelectedItem());
+        updateAdditionalFields(additionalFieldsPanel, deviceTypes.get((String) typeCombo.getSelectedItem()), editors);
 
         // Add button
         gbc.gridy = 3;
@@ -817,13 +791,13 @@ public class SmartHomeGUI extends JFrame implements Observer {
         addButton.setFont(new Font("Segoe UI", Font.BOLD, 14));
         addButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                String typeName = (String) typeCombo.getSelectedItem();
+                Class<? extends Device> type = deviceTypes.get((String) typeCombo.getSelectedItem());
                 String name = nameField.getText().trim();
                 if (name.isEmpty()) {
                     JOptionPane.showMessageDialog(SmartHomeGUI.this, "Please enter a device name.", "Warning", JOptionPane.WARNING_MESSAGE);
                     return;
                 }
-                Device newDevice = createDevice(typeName, name, additionalFieldsPanel);
+                Device newDevice = createDevice(type, name, editors);
                 if (newDevice != null) {
                     controller.addDevice(newDevice);
                     refreshDeviceTable();
@@ -842,288 +816,30 @@ public class SmartHomeGUI extends JFrame implements Observer {
         return panel;
     }
 
-    private void updateAdditionalFields(JPanel panel, String deviceType) {
+    // An editor for each adjustable property of the type, showing a new device's defaults
+    private void updateAdditionalFields(JPanel panel, Class<? extends Device> type, List<JComponent> editors) {
         panel.removeAll();
+        editors.clear();
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.insets = new Insets(8, 8, 8, 8);
         gbc.fill = GridBagConstraints.HORIZONTAL;
 
-        switch (deviceType) {
-            case "Light":
-                gbc.gridx = 0;
-                gbc.gridy = 0;
-                JLabel brightnessLabel = new JLabel("Initial Brightness (0-100):");
-                brightnessLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(brightnessLabel, gbc);
-                gbc.gridx = 1;
-                JSpinner brightnessSpinner = new JSpinner(new SpinnerNumberModel(50, 0, 100, 1));
-                brightnessSpinner.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-                panel.add(brightnessSpinner, gbc);
-
-                gbc.gridx = 0;
-                gbc.gridy = 1;
-                JLabel colorLabel = new JLabel("Color:");
-                colorLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(colorLabel, gbc);
-                gbc.gridx = 1;
-                String[] colors = {"warm", "cool", "daylight"};
-                JComboBox<String> colorCombo = new JComboBox<>(colors);
-                colorCombo.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-                panel.add(colorCombo, gbc);
-                break;
-
-            case "Fan":
-                gbc.gridx = 0;
-                gbc.gridy = 0;
-                JLabel speedLabel = new JLabel("Initial Speed (1-5):");
-                speedLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(speedLabel, gbc);
-                gbc.gridx = 1;
-                JSpinner speedSpinner = new JSpinner(new SpinnerNumberModel(1, 1, 5, 1));
-                speedSpinner.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-                panel.add(speedSpinner, gbc);
-
-                gbc.gridx = 0;
-                gbc.gridy = 1;
-                JLabel oscillatingLabel = new JLabel("Oscillating:");
-                oscillatingLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(oscillatingLabel, gbc);
-                gbc.gridx = 1;
-                JCheckBox oscillatingCheck = new JCheckBox();
-                panel.add(oscillatingCheck, gbc);
-                break;
-
-            case "AirConditioner":
-                gbc.gridx = 0;
-                gbc.gridy = 0;
-                JLabel tempLabel = new JLabel("Initial Temperature (16-30°C):");
-                tempLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(tempLabel, gbc);
-                gbc.gridx = 1;
-                JSpinner tempSpinner = new JSpinner(new SpinnerNumberModel(22, 16, 30, 1));
-                tempSpinner.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-                panel.add(tempSpinner, gbc);
-
-                gbc.gridx = 0;
-                gbc.gridy = 1;
-                JLabel modeLabel = new JLabel("Mode:");
-                modeLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(modeLabel, gbc);
-                gbc.gridx = 1;
-                String[] acModes = {"cool", "heat", "fan", "dry"};
-                JComboBox<String> acModeCombo = new JComboBox<>(acModes);
-                acModeCombo.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-                panel.add(acModeCombo, gbc);
-                break;
-
-            case "Thermostat":
-                gbc.gridx = 0;
-                gbc.gridy = 0;
-                JLabel targetLabel = new JLabel("Target Temperature (10-35°C):");
-                targetLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(targetLabel, gbc);
-                gbc.gridx = 1;
-                JSpinner targetSpinner = new JSpinner(new SpinnerNumberModel(22, 10, 35, 1));
-                targetSpinner.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-                panel.add(targetSpinner, gbc);
-
-                gbc.gridx = 0;
-                gbc.gridy = 1;
-                JLabel currentLabel = new JLabel("Current Temperature (-10-50°C):");
-                currentLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(currentLabel, gbc);
-                gbc.gridx = 1;
-                JSpinner currentSpinner = new JSpinner(new SpinnerNumberModel(22, -10, 50, 1));
-                currentSpinner.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-                panel.add(currentSpinner, gbc);
-
-                gbc.gridx = 0;
-                gbc.gridy = 2;
-                JLabel thermoModeLabel = new JLabel("Mode:");
-                thermoModeLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(thermoModeLabel, gbc);
-                gbc.gridx = 1;
-                String[] thermoModes = {"heat", "cool", "off"};
-                JComboBox<String> thermoModeCombo = new JComboBox<>(thermoModes);
-                thermoModeCombo.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-                panel.add(thermoModeCombo, gbc);
-                break;
-
-            case "DoorLock":
-                gbc.gridx = 0;
-                gbc.gridy = 0;
-                JLabel locationLabel = new JLabel("Location:");
-                locationLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(locationLabel, gbc);
-                gbc.gridx = 1;
-                JTextField locationField = new JTextField(15);
-                locationField.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-                locationField.setText("Front Door");
-                panel.add(locationField, gbc);
-
-                gbc.gridx = 0;
-                gbc.gridy = 1;
-                JLabel lockedLabel = new JLabel("Initially Locked:");
-                lockedLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(lockedLabel, gbc);
-                gbc.gridx = 1;
-                JCheckBox lockedCheck = new JCheckBox();
-                lockedCheck.setSelected(true);
-                panel.add(lockedCheck, gbc);
-                break;
-
-            case "SecurityCamera":
-                gbc.gridx = 0;
-                gbc.gridy = 0;
-                JLabel camLocationLabel = new JLabel("Location:");
-                camLocationLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(camLocationLabel, gbc);
-                gbc.gridx = 1;
-                JTextField camLocationField = new JTextField(15);
-                camLocationField.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-                camLocationField.setText("Living Room");
-                panel.add(camLocationField, gbc);
-
-                gbc.gridx = 0;
-                gbc.gridy = 1;
-                JLabel resLabel = new JLabel("Resolution:");
-                resLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(resLabel, gbc);
-                gbc.gridx = 1;
-                String[] resolutions = {"720", "1080", "4K"};
-                JComboBox<String> resCombo = new JComboBox<>(resolutions);
-                resCombo.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-                resCombo.setSelectedIndex(1); // Default to 1080p
-                panel.add(resCombo, gbc);
-
-                gbc.gridx = 0;
-                gbc.gridy = 2;
-                JLabel recordingLabel = new JLabel("Initially Recording:");
-                recordingLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-                panel.add(recordingLabel, gbc);
-                gbc.gridx = 1;
-                JCheckBox recordingCheck = new JCheckBox();
-                panel.add(recordingCheck, gbc);
-                break;
+        try {
+            Device prototype = Device.blank(type);
+            editors.addAll(addEditorRows(panel, gbc, adjustableProperties(prototype), prototype));
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Can't create a " + type.getSimpleName() + ": " + e.getMessage());
         }
         panel.revalidate();
         panel.repaint();
     }
 
-    private Device createDevice(String typeName, String name, JPanel additionalFieldsPanel) {
+    private Device createDevice(Class<? extends Device> type, String name, List<JComponent> editors) {
         try {
-            switch (typeName) {
-                case "Light":
-                    Light light = new Light(name);
-                    Component[] components = additionalFieldsPanel.getComponents();
-                    for (int i = 0; i < components.length; i++) {
-                        if (components[i] instanceof JSpinner && i == 1) {
-                            int brightness = (Integer) ((JSpinner) components[i]).getValue();
-                            light.setBrightness(brightness);
-                        }
-                        if (components[i] instanceof JComboBox && i == 3) {
-                            String color = (String) ((JComboBox<?>) components[i]).getSelectedItem();
-                            light.setColor(color);
-                        }
-                    }
-                    return light;
-                case "Fan":
-                    Fan fan = new Fan(name);
-                    components = additionalFieldsPanel.getComponents();
-                    for (int i = 0; i < components.length; i++) {
-                        if (components[i] instanceof JSpinner && i == 1) {
-                            int speed = (Integer) ((JSpinner) components[i]).getValue();
-                            fan.setSpeed(speed);
-                        }
-                        if (components[i] instanceof JCheckBox && i == 3) {
-                            boolean oscillating = ((JCheckBox) components[i]).isSelected();
-                            if (oscillating) {
-                                fan.toggleOscillation();
-                            }
-                        }
-                    }
-                    return fan;
-                case "AirConditioner":
-                    AirConditioner ac = new AirConditioner(name);
-                    components = additionalFieldsPanel.getComponents();
-                    for (int i = 0; i < components.length; i++) {
-                        if (components[i] instanceof JSpinner && i == 1) {
-                            int temp = (Integer) ((JSpinner) components[i]).getValue();
-                            ac.setTemperature(temp);
-                        }
-                        if (components[i] instanceof JComboBox && i == 3) {
-                            String mode = (String) ((JComboBox<?>) components[i]).getSelectedItem();
-                            ac.setMode(mode);
-                        }
-                    }
-                    return ac;
-                case "Thermostat":
-                    Thermostat thermo = new Thermostat(name);
-                    components = additionalFieldsPanel.getComponents();
-                    for (int i = 0; i < components.length; i++) {
-                        if (components[i] instanceof JSpinner && i == 1) {
-                            int targetTemp = (Integer) ((JSpinner) components[i]).getValue();
-                            thermo.setTargetTemperature(targetTemp);
-                        }
-                        if (components[i] instanceof JSpinner && i == 3) {
-                            int currentTemp = (Integer) ((JSpinner) components[i]).getValue();
-                            thermo.setCurrentTemperature(currentTemp);
-                        }
-                        if (components[i] instanceof JComboBox && i == 5) {
-                            String mode = (String) ((JComboBox<?>) components[i]).getSelectedItem();
-                            if (!"off".equals(mode)) {
-                                thermo.turnOn();
-                                thermo.setMode(mode);
-                            }
-                        }
-                    }
-                    return thermo;
-                case "DoorLock":
-                    String location = "Front Door";
-                    boolean initiallyLocked = true;
-                    components = additionalFieldsPanel.getComponents();
-                    for (int i = 0; i < components.length; i++) {
-                        if (components[i] instanceof JTextField && i == 1) {
-                            location = ((JTextField) components[i]).getText();
-                        }
-                        if (components[i] instanceof JCheckBox && i == 3) {
-                            initiallyLocked = ((JCheckBox) components[i]).isSelected();
-                        }
-                    }
-                    DoorLock doorLock = new DoorLock(name, location);
-                    if (!initiallyLocked) {
-                        doorLock.turnOff(); // Unlock
-                    }
-                    return doorLock;
-                case "SecurityCamera":
-                    String camLocation = "Living Room";
-                    int resolution = 1080;
-                    boolean initiallyRecording = false;
-                    components = additionalFieldsPanel.getComponents();
-                    for (int i = 0; i < components.length; i++) {
-                        if (components[i] instanceof JTextField && i == 1) {
-                            camLocation = ((JTextField) components[i]).getText();
-                        }
-                        if (components[i] instanceof JComboBox && i == 3) {
-                            String resStr = (String) ((JComboBox<?>) components[i]).getSelectedItem();
-                            if ("4K".equals(resStr)) resolution = 2160;
-                            else if ("720".equals(resStr)) resolution = 720;
-                            else resolution = 1080;
-                        }
-                        if (components[i] instanceof JCheckBox && i == 5) {
-                            initiallyRecording = ((JCheckBox) components[i]).isSelected();
-                        }
-                    }
-                    SecurityCamera camera = new SecurityCamera(name, camLocation);
-                    camera.setResolution(resolution);
-                    if (initiallyRecording) {
-                        camera.turnOn();
-                        camera.toggleRecording();
-                    }
-                    return camera;
-                default:
-                    return null;
-            }
+            Device device = Device.blank(type);
+            device.setName(name);
+            applyEditors(device, adjustableProperties(device), editors);
+            return device;
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this, "Error creating device: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             return null;
@@ -1172,9 +888,20 @@ public class SmartHomeGUI extends JFrame implements Observer {
         styleButton(saveButton, SUCCESS_COLOR);
         saveButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                DevicePersistenceManager.saveDevices();
-                appendToLog("Devices and tasks saved to file.");
-                JOptionPane.showMessageDialog(SmartHomeGUI.this, "Data saved successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                // Written in the background; report back on the EDT when it's done
+                saveButton.setEnabled(false);
+                appendToLog("Saving devices and tasks...");
+                DevicePersistenceManager.saveDevices().whenComplete((ignored, error) -> SwingUtilities.invokeLater(() -> {
+                    saveButton.setEnabled(true);
+                    if (error == null) {
+                        appendToLog("Devices and tasks saved to file.");
+                        JOptionPane.showMessageDialog(SmartHomeGUI.this, "Data saved successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    } else {
+                        Throwable cause = error.getCause() != null ? error.getCause() : error;
+                        appendToLog("Error saving data: " + cause.getMessage());
+                        JOptionPane.showMessageDialog(SmartHomeGUI.this, "Error saving data: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }));
             }
         });
         buttonPanel.add(saveButton);
@@ -1191,16 +918,23 @@ public class SmartHomeGUI extends JFrame implements Observer {
                     JOptionPane.QUESTION_MESSAGE
                 );
                 if (confirm == JOptionPane.YES_OPTION) {
-                    // Clear current data
-                    controller.getDevices().clear();
-                    controller.getScheduledTasks().clear();
-                    // Load saved data
-                    DevicePersistenceManager.loadDevices();
-                    refreshDeviceTable();
-                    refreshTaskTable();
-                    refreshDashboardStatus(dashboardPanel);
-                    appendToLog("Devices and tasks loaded from file.");
-                    JOptionPane.showMessageDialog(SmartHomeGUI.this, "Data loaded successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    // Read off the EDT and swapped in whole, so the tables never show a partial load
+                    loadButton.setEnabled(false);
+                    appendToLog("Loading devices and tasks...");
+                    DevicePersistenceManager.reloadDevices().whenComplete((ignored, error) -> SwingUtilities.invokeLater(() -> {
+                        loadButton.setEnabled(true);
+                        if (error == null) {
+                            refreshDeviceTable();
+                            refreshTaskTable();
+                            refreshDashboardStatus(dashboardPanel);
+                            appendToLog("Devices and tasks loaded from file.");
+                            JOptionPane.showMessageDialog(SmartHomeGUI.this, "Data loaded successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                        } else {
+                            Throwable cause = error.getCause() != null ? error.getCause() : error;
+                            appendToLog("Error loading data: " + cause.getMessage());
+                            JOptionPane.showMessageDialog(SmartHomeGUI.this, "Error loading data: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                        }
+                    }));
                 }
             }
         });
@@ -1363,9 +1097,10 @@ public class SmartHomeGUI extends JFrame implements Observer {
     }
 
     // Observer implementation
+    // Called on an event bus thread, so hand the message over to the EDT
     @Override
     public void update(String message) {
-        appendToLog(message);
+        SwingUtilities.invokeLater(() -> appendToLog(message));
     }
 
     private void appendToLog(String message) {
@@ -1395,85 +1130,29 @@ public class SmartHomeGUI extends JFrame implements Observer {
         });
     }
 
-    // Show dialogs for device adjustments
-    private void showLightDialog(Light light) {
-        JDialog dialog = new JDialog(this, "Adjust Light Settings", true);
-        dialog.setLayout(new GridBagLayout());
-        dialog.setSize(350, 250);
-        dialog.setLocationRelativeTo(this);
-        dialog.getContentPane().setBackground(SECONDARY_COLOR);
-
-        GridBagConstraints gbc = new GridBagConstraints();
-        gbc.insets = new Insets(10, 10, 10, 10);
-        gbc.fill = GridBagConstraints.HORIZONTAL;
-
-        // Brightness slider
-        gbc.gridx = 0;
-        gbc.gridy = 0;
-        JLabel brightnessLabel = new JLabel("Brightness:");
-        brightnessLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-        dialog.add(brightnessLabel, gbc);
-        gbc.gridx = 1;
-        JSlider brightnessSlider = new JSlider(0, 100, light.getBrightness());
-        brightnessSlider.setMajorTickSpacing(20);
-        brightnessSlider.setMinorTickSpacing(10);
-        brightnessSlider.setPaintTicks(true);
-        brightnessSlider.setPaintLabels(true);
-        brightnessSlider.setFont(new Font("Segoe UI", Font.PLAIN, 10));
-        dialog.add(brightnessSlider, gbc);
-
-        // Color options
-        gbc.gridx = 0;
-        gbc.gridy = 1;
-        JLabel colorLabel = new JLabel("Color:");
-        colorLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-        dialog.add(colorLabel, gbc);
-        gbc.gridx = 1;
-        String[] colors = {"warm", "cool", "daylight"};
-        JComboBox<String> colorCombo = new JComboBox<>(colors);
-        colorCombo.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-        colorCombo.setSelectedItem(light.getColor());
-        dialog.add(colorCombo, gbc);
-
-        // Buttons
-        gbc.gridx = 0;
-        gbc.gridy = 2;
-        gbc.gridwidth = 2;
-        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 5));
-        buttonPanel.setBackground(dialog.getContentPane().getBackground());
-
-        JButton applyButton = new JButton("Apply");
-        styleButton(applyButton, SUCCESS_COLOR);
-        applyButton.addActionListener(new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
-                light.setBrightness(brightnessSlider.getValue());
-                light.setColor((String) colorCombo.getSelectedItem());
-                refreshDashboardStatus(dashboardPanel);
-                refreshDeviceTable();
-                dialog.dispose();
-                appendToLog("Light settings updated: " + light.getName());
-            }
-        });
-
-        JButton cancelButton = new JButton("Cancel");
-        styleButton(cancelButton, Color.GRAY);
-        cancelButton.addActionListener(new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
-                dialog.dispose();
-            }
-        });
-
-        buttonPanel.add(applyButton);
-        buttonPanel.add(cancelButton);
+    // What the device's power property reads, some types don't keep it in the on flag
+    private static boolean isPowered(Device device) {
+        return DeviceProperty.find(device.getClass(), DeviceEvent.POWER).getInt(device) != 0;
+    }
 
-        dialog.add(buttonPanel, gbc);
-        dialog.setVisible(true);
+    // Properties a device's adjust dialog offers: everything it can change except the
+    // name and power, which have their own controls
+    private List<DeviceProperty<?>> adjustableProperties(Device device) {
+        List<DeviceProperty<?>> properties = new ArrayList<>();
+        for (DeviceProperty<?> property : DeviceProperty.of(device.getClass())) {
+            if (!property.isWritable()) continue;
+            if (property.getName().equals(DeviceEvent.NAME) || property.getName().equals(DeviceEvent.POWER)) continue;
+            properties.add(property);
+        }
+        return properties;
     }
 
-    private void showFanDialog(Fan fan) {
-        JDialog dialog = new JDialog(this, "Adjust Fan Settings", true);
+    // One dialog for every device type, with an editor per adjustable property
+    private void showAdjustDialog(Device device) {
+        List<DeviceProperty<?>> properties = adjustableProperties(device);
+        JDialog dialog = new JDialog(this, "Adjust " + device.getName(), true);
         dialog.setLayout(new GridBagLayout());
-        dialog.setSize(350, 200);
+        dialog.setSize(350, 110 + 45 * properties.size());
         dialog.setLocationRelativeTo(this);
         dialog.getContentPane().setBackground(SECONDARY_COLOR);
 
@@ -1481,32 +1160,11 @@ public class SmartHomeGUI extends JFrame implements Observer {
         gbc.insets = new Insets(10, 10, 10, 10);
         gbc.fill = GridBagConstraints.HORIZONTAL;
 
-        // Speed selection
-        gbc.gridx = 0;
-        gbc.gridy = 0;
-        JLabel speedLabel = new JLabel("Speed:");
-        speedLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-        dialog.add(speedLabel, gbc);
-        gbc.gridx = 1;
-        SpinnerModel speedModel = new SpinnerNumberModel(fan.getSpeed(), 1, 5, 1);
-        JSpinner speedSpinner = new JSpinner(speedModel);
-        speedSpinner.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-        dialog.add(speedSpinner, gbc);
-
-        // Oscillation checkbox
-        gbc.gridx = 0;
-        gbc.gridy = 1;
-        JLabel oscillationLabel = new JLabel("Oscillating:");
-        oscillationLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-        dialog.add(oscillationLabel, gbc);
-        gbc.gridx = 1;
-        JCheckBox oscillationCheck = new JCheckBox();
-        oscillationCheck.setSelected(fan.isOscillating());
-        dialog.add(oscillationCheck, gbc);
+        List<JComponent> editors = addEditorRows(dialog.getContentPane(), gbc, properties, device);
 
         // Buttons
         gbc.gridx = 0;
-        gbc.gridy = 2;
+        gbc.gridy = properties.size();
         gbc.gridwidth = 2;
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 5));
         buttonPanel.setBackground(dialog.getContentPane().getBackground());
@@ -1515,14 +1173,16 @@ public class SmartHomeGUI extends JFrame implements Observer {
         styleButton(applyButton, SUCCESS_COLOR);
         applyButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                fan.setSpeed((Integer) speedSpinner.getValue());
-                if (oscillationCheck.isSelected() != fan.isOscillating()) {
-                    fan.toggleOscillation();
+                try {
+                    applyEditors(device, properties, editors);
+                } catch (IllegalArgumentException ex) {
+                    JOptionPane.showMessageDialog(dialog, ex.getMessage(), "Invalid Value", JOptionPane.ERROR_MESSAGE);
+                    return;
                 }
                 refreshDashboardStatus(dashboardPanel);
                 refreshDeviceTable();
                 dialog.dispose();
-                appendToLog("Fan settings updated: " + fan.getName());
+                appendToLog(device.getClass().getSimpleName() + " settings updated: " + device.getName());
             }
         });
 
@@ -1541,164 +1201,83 @@ public class SmartHomeGUI extends JFrame implements Observer {
         dialog.setVisible(true);
     }
 
-    private void showAcDialog(AirConditioner ac) {
-        JDialog dialog = new JDialog(this, "Adjust AC Settings", true);
-        dialog.setLayout(new GridBagLayout());
-        dialog.setSize(350, 200);
-        dialog.setLocationRelativeTo(this);
-        dialog.getContentPane().setBackground(SECONDARY_COLOR);
-
-        GridBagConstraints gbc = new GridBagConstraints();
-        gbc.insets = new Insets(10, 10, 10, 10);
-        gbc.fill = GridBagConstraints.HORIZONTAL;
-
-        // Temperature selection
-        gbc.gridx = 0;
-        gbc.gridy = 0;
-        JLabel tempLabel = new JLabel("Temperature:");
-        tempLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-        dialog.add(tempLabel, gbc);
-        gbc.gridx = 1;
-        SpinnerModel tempModel = new SpinnerNumberModel(ac.getTemperature(), 16, 30, 1);
-        JSpinner tempSpinner = new JSpinner(tempModel);
-        tempSpinner.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-        dialog.add(tempSpinner, gbc);
-
-        // Mode selection
-        gbc.gridx = 0;
-        gbc.gridy = 1;
-        JLabel modeLabel = new JLabel("Mode:");
-        modeLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-        dialog.add(modeLabel, gbc);
-        gbc.gridx = 1;
-        String[] modes = {"cool", "heat", "fan", "dry"};
-        JComboBox<String> modeCombo = new JComboBox<>(modes);
-        modeCombo.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-        modeCombo.setSelectedItem(ac.getMode());
-        dialog.add(modeCombo, gbc);
-
-        // Buttons
-        gbc.gridx = 0;
-        gbc.gridy = 2;
-        gbc.gridwidth = 2;
-        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 5));
-        buttonPanel.setBackground(dialog.getContentPane().getBackground());
-
-        JButton applyButton = new JButton("Apply");
-        styleButton(applyButton, SUCCESS_COLOR);
-        applyButton.addActionListener(new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
-                ac.setTemperature((Integer) tempSpinner.getValue());
-                ac.setMode((String) modeCombo.getSelectedItem());
-                refreshDashboardStatus(dashboardPanel);
-                refreshDeviceTable();
-                dialog.dispose();
-                appendToLog("AC settings updated: " + ac.getName());
-            }
-        });
-
-        JButton cancelButton = new JButton("Cancel");
-        styleButton(cancelButton, Color.GRAY);
-        cancelButton.addActionListener(new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
-                dialog.dispose();
-            }
-        });
-
-        buttonPanel.add(applyButton);
-        buttonPanel.add(cancelButton);
-
-        dialog.add(buttonPanel, gbc);
-        dialog.setVisible(true);
+    // A labelled row per property from the top of a GridBagLayout container, editors in property order
+    private List<JComponent> addEditorRows(Container container, GridBagConstraints gbc, List<DeviceProperty<?>> properties, Device device) {
+        List<JComponent> editors = new ArrayList<>();
+        for (int row = 0; row < properties.size(); row++) {
+            DeviceProperty<?> property = properties.get(row);
+            gbc.gridx = 0;
+            gbc.gridy = row;
+            JLabel label = new JLabel(property.getLabel() + ":");
+            label.setFont(new Font("Segoe UI", Font.BOLD, 12));
+            container.add(label, gbc);
+            gbc.gridx = 1;
+            JComponent editor = createEditor(property, device);
+            editor.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+            container.add(editor, gbc);
+            editors.add(editor);
+        }
+        return editors;
     }
 
-    private void showThermostatDialog(Thermostat thermostat) {
-        JDialog dialog = new JDialog(this, "Adjust Thermostat Settings", true);
-        dialog.setLayout(new GridBagLayout());
-        dialog.setSize(350, 250);
-        dialog.setLocationRelativeTo(this);
-        dialog.getContentPane().setBackground(SECONDARY_COLOR);
-
-        GridBagConstraints gbc = new GridBagConstraints();
-        gbc.insets = new Insets(10, 10, 10, 10);
-        gbc.fill = GridBagConstraints.HORIZONTAL;
-
-        // Target temperature
-        gbc.gridx = 0;
-        gbc.gridy = 0;
-        JLabel targetLabel = new JLabel("Target Temp:");
-        targetLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-        dialog.add(targetLabel, gbc);
-        gbc.gridx = 1;
-        SpinnerModel targetModel = new SpinnerNumberModel(thermostat.getTargetTemperature(), 10, 35, 1);
-        JSpinner targetSpinner = new JSpinner(targetModel);
-        targetSpinner.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-        dialog.add(targetSpinner, gbc);
-
-        // Current temperature (simulated)
-        gbc.gridx = 0;
-        gbc.gridy = 1;
-        JLabel currentLabel = new JLabel("Current Temp:");
-        currentLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-        dialog.add(currentLabel, gbc);
-        gbc.gridx = 1;
-        SpinnerModel currentModel = new SpinnerNumberModel(thermostat.getCurrentTemperature(), -10, 50, 1);
-        JSpinner currentSpinner = new JSpinner(currentModel);
-        currentSpinner.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-        dialog.add(currentSpinner, gbc);
-
-        // Mode selection
-        gbc.gridx = 0;
-        gbc.gridy = 2;
-        JLabel modeLabel = new JLabel("Mode:");
-        modeLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
-        dialog.add(modeLabel, gbc);
-        gbc.gridx = 1;
-        String[] modes = {"heat", "cool", "off"};
-        JComboBox<String> modeCombo = new JComboBox<>(modes);
-        modeCombo.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-        modeCombo.setSelectedItem(thermostat.getMode());
-        dialog.add(modeCombo, gbc);
-
-        // Buttons
-        gbc.gridx = 0;
-        gbc.gridy = 3;
-        gbc.gridwidth = 2;
-        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 5));
-        buttonPanel.setBackground(dialog.getContentPane().getBackground());
-
-        JButton applyButton = new JButton("Apply");
-        styleButton(applyButton, SUCCESS_COLOR);
-        applyButton.addActionListener(new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
-                thermostat.setTargetTemperature((Integer) targetSpinner.getValue());
-                thermostat.setCurrentTemperature((Integer) currentSpinner.getValue());
-                if (!modeCombo.getSelectedItem().equals(thermostat.getMode())) {
-                    thermostat.turnOff(); // Reset
-                    if (!"off".equals(modeCombo.getSelectedItem())) {
-                        thermostat.turnOn();
-                        thermostat.setMode((String) modeCombo.getSelectedItem());
+    // Check box for flags, list for choices and fixed numbers, spinner for ranges, text field for text
+    private JComponent createEditor(DeviceProperty<?> property, Device device) {
+        Object value = property.getValue(device);
+        switch (property.getKind()) {
+            case BOOLEAN:
+                JCheckBox checkBox = new JCheckBox();
+                checkBox.setSelected((Boolean) value);
+                return checkBox;
+            case CHOICE:
+                JComboBox<Object> choiceCombo = new JComboBox<>(property.getChoices());
+                choiceCombo.setSelectedItem(value);
+                return choiceCombo;
+            case INT:
+                int[] allowed = property.getAllowedValues();
+                if (allowed != null) {
+                    JComboBox<Object> numberCombo = new JComboBox<>();
+                    for (int number : allowed) {
+                        numberCombo.addItem(number);
                     }
+                    numberCombo.setSelectedItem(value);
+                    return numberCombo;
                 }
-                refreshDashboardStatus(dashboardPanel);
-                refreshDeviceTable();
-                dialog.dispose();
-                appendToLog("Thermostat settings updated: " + thermostat.getName());
-            }
-        });
+                return new JSpinner(new SpinnerNumberModel((int) (Integer) value, property.getMin(), property.getMax(), 1));
+            default:
+                JTextField textField = new JTextField(15);
+                textField.setText((String) value);
+                return textField;
+        }
+    }
 
-        JButton cancelButton = new JButton("Cancel");
-        styleButton(cancelButton, Color.GRAY);
-        cancelButton.addActionListener(new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
-                dialog.dispose();
-            }
-        });
+    // Sets only what the editors changed, in one update so it's one event. Every value is
+    // checked before any is set, so one that's rejected leaves the device as it was.
+    private static void applyEditors(Device device, List<DeviceProperty<?>> properties, List<JComponent> editors) {
+        List<DeviceProperty<?>> changed = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < properties.size(); i++) {
+            DeviceProperty<?> property = properties.get(i);
+            Object value = editorValue(editors.get(i));
+            if (value.equals(property.getValue(device))) continue;
+            property.checkValue(value);
+            changed.add(property);
+            values.add(value);
+        }
 
-        buttonPanel.add(applyButton);
-        buttonPanel.add(cancelButton);
+        device.beginUpdate();
+        try {
+            for (int i = 0; i < changed.size(); i++) {
+                changed.get(i).setValue(device, values.get(i));
+            }
+        } finally {
+            device.endUpdate();
+        }
+    }
 
-        dialog.add(buttonPanel, gbc);
-        dialog.setVisible(true);
+    private static Object editorValue(JComponent editor) {
+        if (editor instanceof JCheckBox) return ((JCheckBox) editor).isSelected();
+        if (editor instanceof JComboBox) return ((JComboBox<?>) editor).getSelectedItem();
+        if (editor instanceof JSpinner) return ((JSpinner) editor).getValue();
+        return ((JTextField) editor).getText();
     }
 }
\ No newline at end of file
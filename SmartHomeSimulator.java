@@ -1,9 +1,10 @@
+import java.util.concurrent.CompletionException;
 import javax.swing.SwingUtilities;
 
 public class SmartHomeSimulator {
     public static void main(String[] args) {
-        // Load saved data
-        DevicePersistenceManager.loadDevices();
+        // Load saved data, changes are logged as they happen from here on
+        DevicePersistenceManager.openChangeLog();
         
         // Create and show GUI
         SwingUtilities.invokeLater(() -> {
@@ -11,10 +12,18 @@ public class SmartHomeSimulator {
             gui.setVisible(true);
         });
         
-        // Add shutdown hook to save data
+        // Add shutdown hook, which writes out the last logged changes, or saves
+        // everything when there is no change log to write them to
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            DevicePersistenceManager.saveDevices();
-            SmartHomeController.getInstance().shutdown();
+            SmartHomeController controller = SmartHomeController.getInstance();
+            if (controller.getChangeLog() == null) {
+                try {
+                    DevicePersistenceManager.saveDevices().join();
+                } catch (CompletionException e) {
+                    // Already reported by saveDevices()
+                }
+            }
+            controller.shutdown();
             System.out.println("Smart Home Simulator shut down gracefully.");
         }));
     }
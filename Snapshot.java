@@ -0,0 +1,22 @@
+import java.util.Collections;
+import java.util.List;
+
+// Immutable, versioned view of a registry. The same instance is handed to every
+// reader until the registry changes, so callers must not try to modify it.
+public final class Snapshot<T> {
+    private final long version;
+    private final List<T> items;
+
+    Snapshot(long version, List<T> items) {
+        this.version = version;
+        this.items = Collections.unmodifiableList(items);
+    }
+
+    public long getVersion() { return version; }
+    public List<T> getItems() { return items; }
+    public int size() { return items.size(); }
+
+    public boolean changedSince(long version) {
+        return this.version > version;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.UUID;
+
+// Binary form of a ScheduledTask: codec version, id, device, action, enabled flag and a
+// tagged schedule. Only what the task needs to be rebuilt is stored; the compiled
+// command and next fire time are worked out again when it is scheduled.
+public final class TaskCodec {
+    private static final int VERSION = 1;
+
+    // Schedule tags are stored in files: never reuse or renumber them
+    private static final int TIME_OF_DAY = 1;
+    private static final int ONCE = 2;
+    private static final int INTERVAL = 3;
+    private static final int CRON = 4;
+
+    private TaskCodec() {
+    }
+
+    public static void write(ScheduledTask task, BinaryWriter out) throws IOException {
+        UUID id = UUID.fromString(task.getId());
+        out.writeByte(VERSION);
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+        out.writeString(task.getDeviceName());
+        out.writeString(task.getAction());
+        out.writeBoolean(task.isEnabled());
+        writeSchedule(task.getSchedule(), out);
+    }
+
+    // Throws IllegalArgumentException if the saved action no longer compiles or the
+    // schedule fields are out of range
+    public static ScheduledTask read(BinaryReader in) throws IOException {
+        int version = in.readByte();
+        if (version > VERSION) throw new IOException("Task record version " + version + " is newer than this program");
+        UUID id = new UUID(in.readLong(), in.readLong());
+        String deviceName = in.readString();
+        String action = in.readString();
+        boolean enabled = in.readBoolean();
+        TaskSchedule schedule = readSchedule(in);
+        return new ScheduledTask(id.toString(), deviceName, action, schedule, enabled);
+    }
+
+    private static void writeSchedule(TaskSchedule schedule, BinaryWriter out) throws IOException {
+        if (schedule instanceof TaskSchedule.TimeOfDay) {
+            TaskSchedule.TimeOfDay daily = (TaskSchedule.TimeOfDay) schedule;
+            out.writeByte(TIME_OF_DAY);
+            out.writeInt(daily.getTime().toSecondOfDay());
+            out.writeByte(daily.getWeekdays());
+        } else if (schedule instanceof TaskSchedule.Once) {
+            out.writeByte(ONCE);
+            out.writeInt(((TaskSchedule.Once) schedule).getTime().toSecondOfDay());
+        } else if (schedule instanceof TaskSchedule.Interval) {
+            TaskSchedule.Interval interval = (TaskSchedule.Interval) schedule;
+            out.writeByte(INTERVAL);
+            out.writeLong(interval.getPeriodMillis());
+            out.writeLong(interval.getAnchorMillis());
+        } else if (schedule instanceof TaskSchedule.Cron) {
+            out.writeByte(CRON);
+            out.writeString(((TaskSchedule.Cron) schedule).getExpression().getExpression());
+        } else {
+            throw new IOException("No codec for schedule " + schedule.getClass().getName());
+        }
+    }
+
+    private static TaskSchedule readSchedule(BinaryReader in) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case TIME_OF_DAY:
+                LocalTime time = readTime(in);
+                return new TaskSchedule.TimeOfDay(time, in.readByte());
+            case ONCE:
+                return new TaskSchedule.Once(readTime(in));
+            case INTERVAL:
+                Duration period = Duration.ofMillis(in.readLong());
+                return new TaskSchedule.Interval(period, in.readLong());
+            case CRON:
+                return new TaskSchedule.Cron(new CronExpression(in.readString()));
+            default:
+                throw new IOException("Unknown schedule type " + tag);
+        }
+    }
+
+    private static LocalTime readTime(BinaryReader in) throws IOException {
+        int second = in.readInt();
+        if (second < 0 || second >= 24 * 60 * 60) throw new IllegalArgumentException("Bad time of day " + second + " in task record");
+        return LocalTime.ofSecondOfDay(second);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,139 @@
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Runs due tasks in parallel while keeping the order of tasks that target the same
+// device. Each device key gets a lane: the first task starts a drain on the executor and
+// later ones queue behind it, so unrelated devices never wait on each other.
+public class TaskDispatcher {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    private final ExecutorService executor;
+    private final Map<String, Lane> lanes;
+    private final Limiter inFlight;
+    private int maxInFlight;
+
+    public TaskDispatcher(int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be at least 1");
+        this.executor = createExecutor(maxInFlight);
+        this.lanes = new ConcurrentHashMap<>();
+        this.inFlight = new Limiter(maxInFlight);
+        this.maxInFlight = maxInFlight;
+    }
+
+    // Blocks the caller once the in-flight limit is reached, which holds back the scheduler
+    // thread instead of piling up unbounded work
+    public void dispatch(String key, Runnable work) {
+        inFlight.acquireUninterruptibly();
+        boolean[] start = new boolean[1];
+        lanes.compute(key, (k, lane) -> {
+            if (lane == null) {
+                lane = new Lane();
+                start[0] = true;
+            }
+            lane.pending.add(work);
+            return lane;
+        });
+        if (start[0]) {
+            executor.execute(() -> drain(key));
+        }
+    }
+
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be at least 1");
+        int delta = maxInFlight - this.maxInFlight;
+        if (delta > 0) inFlight.release(delta);
+        else if (delta < 0) inFlight.reduce(-delta);
+        this.maxInFlight = maxInFlight;
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            // The maximum may never drop below the core size, so the order depends on the direction
+            if (delta > 0) {
+                pool.setMaximumPoolSize(maxInFlight);
+                pool.setCorePoolSize(maxInFlight);
+            } else if (delta < 0) {
+                pool.setCorePoolSize(maxInFlight);
+                pool.setMaximumPoolSize(maxInFlight);
+            }
+        }
+    }
+
+    public synchronized int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getInFlight() {
+        return Math.max(0, getMaxInFlight() - inFlight.availablePermits());
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain(String key) {
+        Runnable[] next = new Runnable[1];
+        while (true) {
+            next[0] = null;
+            // Polling inside compute() means a lane is only dropped when it is really empty,
+            // so a task added concurrently either lands in this lane or starts a new one
+            lanes.computeIfPresent(key, (k, lane) -> {
+                next[0] = lane.pending.poll();
+                return next[0] == null ? null : lane;
+            });
+            if (next[0] == null) return;
+            try {
+                next[0].run();
+            } catch (RuntimeException e) {
+                System.err.println("Error executing scheduled task: " + e.getMessage());
+            } finally {
+                inFlight.release();
+            }
+        }
+    }
+
+    // Virtual threads when the runtime has them (Java 21+). On the Java 17 this project
+    // targets that lookup always fails and tasks run on a pool of daemon platform threads,
+    // one per task allowed in flight: a lane only holds a thread while it has a task, so
+    // more would sit idle. Threads start as needed and stop after a minute without work.
+    private static ExecutorService createExecutor(int maxInFlight) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxInFlight, maxInFlight, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        Thread thread = new Thread(r, "task-worker");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    private static final class Lane {
+        final ArrayDeque<Runnable> pending = new ArrayDeque<>(); // Only touched inside lanes.compute()
+    }
+
+    private static final class Limiter extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        Limiter(int permits) {
+            super(permits);
+        }
+
+        void reduce(int permits) {
+            reducePermits(permits);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,94 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Concurrent store for scheduled tasks, same approach as DeviceRegistry
+public class TaskRegistry {
+    private final AtomicLong sequence;
+    private final AtomicLong version; // Bumped on every add or remove
+    private volatile Snapshot<ScheduledTask> snapshot;
+    private final Map<String, ScheduledTask> byId;
+    private final ConcurrentNavigableMap<Long, ScheduledTask> ordered;
+    private volatile Consumer<ScheduledTask> changeListener; // Told when a registered task is edited
+
+    public TaskRegistry() {
+        sequence = new AtomicLong();
+        version = new AtomicLong();
+        snapshot = new Snapshot<>(0, new ArrayList<>());
+        byId = new ConcurrentHashMap<>();
+        ordered = new ConcurrentSkipListMap<>();
+    }
+
+    public boolean add(ScheduledTask task) {
+        if (byId.putIfAbsent(task.getId(), task) != null) {
+            return false;
+        }
+        long seq = sequence.incrementAndGet();
+        task.registrySeq = seq;
+        task.registry = this;
+        ordered.put(seq, task);
+        version.incrementAndGet();
+        return true;
+    }
+
+    public ScheduledTask remove(String taskId) {
+        ScheduledTask task = byId.remove(taskId);
+        if (task != null) {
+            ordered.remove(task.registrySeq);
+            if (task.registry == this) task.registry = null;
+            version.incrementAndGet();
+        }
+        return task;
+    }
+
+    public void setChangeListener(Consumer<ScheduledTask> listener) {
+        this.changeListener = listener;
+    }
+
+    // Called by ScheduledTask setters
+    void taskChanged(ScheduledTask task) {
+        Consumer<ScheduledTask> listener = changeListener;
+        if (listener != null) listener.accept(task);
+    }
+
+    public ScheduledTask getById(String taskId) {
+        return byId.get(taskId);
+    }
+
+    // Weakly consistent live view, safe to iterate while other threads add or remove tasks
+    public Collection<ScheduledTask> values() {
+        return Collections.unmodifiableCollection(ordered.values());
+    }
+
+    public List<ScheduledTask> getAll() {
+        return snapshot().getItems();
+    }
+
+    // Shared immutable list, see DeviceRegistry.snapshot()
+    public Snapshot<ScheduledTask> snapshot() {
+        Snapshot<ScheduledTask> current = snapshot;
+        long v = version.get();
+        if (current.getVersion() == v) return current;
+
+        current = new Snapshot<>(v, new ArrayList<>(ordered.values()));
+        snapshot = current;
+        return current;
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    // Moves the version past that of the registry this one replaces, so anyone polling
+    // versions sees the replacement as a change
+    void continueAfter(long previousVersion) {
+        version.accumulateAndGet(previousVersion + 1, Math::max);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,276 @@
+import java.io.Serializable;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.TextStyle;
+import java.util.Locale;
+
+// When a ScheduledTask runs. Supported forms, as typed into the schedule tab:
+//   "19:00" or "19:00:30"        - time of day, daily or one-time
+//   "7:30 mon-fri", "8:00 sat,sun" - time of day on selected weekdays
+//   "every 90s", "every 15m", "every 2h" - fixed interval
+//   "0 */5 * * * *"             - cron, 5 or 6 fields
+public abstract class TaskSchedule implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public static final int EVERY_DAY = 0x7F; // Weekday mask, Monday = bit 0
+
+    private static final DateTimeFormatter MINUTES = DateTimeFormatter.ofPattern("H:mm");
+    private static final DateTimeFormatter SECONDS = DateTimeFormatter.ofPattern("H:mm:ss");
+
+    // First fire instant strictly after the given time, or null if the schedule is used up
+    public abstract ZonedDateTime nextAfter(ZonedDateTime after);
+
+    public abstract boolean isRecurring();
+
+    // Text shown in the time column, parse() accepts it back
+    public abstract String getTimeText();
+
+    public abstract String describe();
+
+    // How long after its nominal instant a run still counts as on time when the task is first
+    // armed. Minute-precision times keep the old behaviour of firing any time within that minute.
+    public long getGraceMillis() {
+        return 0;
+    }
+
+    public static TaskSchedule parse(String text, boolean recurring) {
+        String trimmed = text.trim();
+        String lower = trimmed.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("every ")) {
+            return new Interval(parseDuration(lower.substring(6).trim()), System.currentTimeMillis());
+        }
+
+        String[] parts = trimmed.split("\\s+");
+        if (parts.length >= 5) {
+            return new Cron(new CronExpression(trimmed));
+        }
+        if (parts.length > 2) {
+            throw new IllegalArgumentException("Unrecognised schedule: " + text);
+        }
+
+        LocalTime time = parseTime(parts[0]);
+        int weekdays = parts.length == 2 ? parseWeekdays(parts[1]) : EVERY_DAY;
+        if (!recurring && weekdays != EVERY_DAY) {
+            throw new IllegalArgumentException("Weekday schedules are always recurring: " + text);
+        }
+        return recurring ? new TimeOfDay(time, weekdays) : new Once(time);
+    }
+
+    public static TaskSchedule at(LocalTime time, boolean recurring) {
+        return recurring ? new TimeOfDay(time, EVERY_DAY) : new Once(time);
+    }
+
+    static LocalTime parseTime(String text) {
+        try {
+            return LocalTime.parse(text, text.length() > 5 ? SECONDS : MINUTES);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid time '" + text + "', use H:mm or H:mm:ss");
+        }
+    }
+
+    static String formatTime(LocalTime time) {
+        return time.format(time.getSecond() == 0 ? MINUTES : SECONDS);
+    }
+
+    private static Duration parseDuration(String text) {
+        try {
+            long amount = Long.parseLong(text.substring(0, text.length() - 1));
+            Duration duration;
+            switch (text.charAt(text.length() - 1)) {
+                case 's': duration = Duration.ofSeconds(amount); break;
+                case 'm': duration = Duration.ofMinutes(amount); break;
+                case 'h': duration = Duration.ofHours(amount); break;
+                case 'd': duration = Duration.ofDays(amount); break;
+                default: throw new IllegalArgumentException("Unknown interval unit in: " + text);
+            }
+            if (duration.getSeconds() < 1) {
+                throw new IllegalArgumentException("Interval must be at least one second: " + text);
+            }
+            return duration;
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid interval '" + text + "', use e.g. 30s, 15m or 2h");
+        }
+    }
+
+    private static int parseWeekdays(String text) {
+        int mask = 0;
+        for (String part : text.split(",")) {
+            int dash = part.indexOf('-');
+            if (dash >= 0) {
+                int from = parseDay(part.substring(0, dash));
+                int to = parseDay(part.substring(dash + 1));
+                for (int d = from; ; d = (d + 1) % 7) {
+                    mask |= 1 << d;
+                    if (d == to) break;
+                }
+            } else {
+                mask |= 1 << parseDay(part);
+            }
+        }
+        return mask;
+    }
+
+    private static int parseDay(String text) {
+        for (DayOfWeek day : DayOfWeek.values()) {
+            if (day.getDisplayName(TextStyle.SHORT, Locale.ENGLISH).equalsIgnoreCase(text)) {
+                return day.getValue() - 1;
+            }
+        }
+        throw new IllegalArgumentException("Unknown weekday: " + text);
+    }
+
+    private static String formatWeekdays(int mask) {
+        StringBuilder sb = new StringBuilder();
+        for (DayOfWeek day : DayOfWeek.values()) {
+            if ((mask & (1 << (day.getValue() - 1))) != 0) {
+                if (sb.length() > 0) sb.append(',');
+                sb.append(day.getDisplayName(TextStyle.SHORT, Locale.ENGLISH));
+            }
+        }
+        return sb.toString();
+    }
+
+    // Every day, or only on the days in the weekday mask
+    public static class TimeOfDay extends TaskSchedule {
+        private static final long serialVersionUID = 1L;
+        private final LocalTime time;
+        private final int weekdays;
+
+        public TimeOfDay(LocalTime time, int weekdays) {
+            if ((weekdays & EVERY_DAY) == 0) {
+                throw new IllegalArgumentException("Weekday mask selects no days");
+            }
+            this.time = time;
+            this.weekdays = weekdays & EVERY_DAY;
+        }
+
+        @Override
+        public ZonedDateTime nextAfter(ZonedDateTime after) {
+            LocalDate day = after.toLocalDate();
+            for (int i = 0; i <= 7; i++, day = day.plusDays(1)) {
+                if ((weekdays & (1 << (day.getDayOfWeek().getValue() - 1))) == 0) continue;
+                ZonedDateTime candidate = ZonedDateTime.of(day, time, after.getZone());
+                if (candidate.isAfter(after)) return candidate;
+            }
+            return null; // Unreachable, the mask has at least one day
+        }
+
+        @Override
+        public boolean isRecurring() { return true; }
+
+        @Override
+        public long getGraceMillis() { return time.getSecond() == 0 ? 60000 : 0; }
+
+        @Override
+        public String getTimeText() {
+            return weekdays == EVERY_DAY ? formatTime(time) : formatTime(time) + " " + formatWeekdays(weekdays);
+        }
+
+        @Override
+        public String describe() {
+            return weekdays == EVERY_DAY ? "Daily" : formatWeekdays(weekdays);
+        }
+
+        public LocalTime getTime() { return time; }
+        public int getWeekdays() { return weekdays; }
+    }
+
+    // Runs at the next occurrence of the time, then never again
+    public static class Once extends TaskSchedule {
+        private static final long serialVersionUID = 1L;
+        private final LocalTime time;
+
+        public Once(LocalTime time) {
+            this.time = time;
+        }
+
+        @Override
+        public ZonedDateTime nextAfter(ZonedDateTime after) {
+            ZonedDateTime today = ZonedDateTime.of(after.toLocalDate(), time, after.getZone());
+            return today.isAfter(after) ? today : today.plusDays(1);
+        }
+
+        @Override
+        public boolean isRecurring() { return false; }
+
+        @Override
+        public long getGraceMillis() { return time.getSecond() == 0 ? 60000 : 0; }
+
+        @Override
+        public String getTimeText() { return formatTime(time); }
+
+        @Override
+        public String describe() { return "One-time"; }
+
+        public LocalTime getTime() { return time; }
+    }
+
+    // Fixed period counted from an anchor instant, so runs never drift
+    public static class Interval extends TaskSchedule {
+        private static final long serialVersionUID = 1L;
+        private final long periodMillis;
+        private final long anchorMillis;
+
+        public Interval(Duration period, long anchorMillis) {
+            if (period.toMillis() <= 0) throw new IllegalArgumentException("Interval must be positive: " + period);
+            this.periodMillis = period.toMillis();
+            this.anchorMillis = anchorMillis;
+        }
+
+        @Override
+        public ZonedDateTime nextAfter(ZonedDateTime after) {
+            long t = after.toInstant().toEpochMilli();
+            long periods = t < anchorMillis ? 0 : (t - anchorMillis) / periodMillis + 1;
+            long next = anchorMillis + periods * periodMillis;
+            return ZonedDateTime.ofInstant(Instant.ofEpochMilli(next), after.getZone());
+        }
+
+        @Override
+        public boolean isRecurring() { return true; }
+
+        @Override
+        public String getTimeText() {
+            long seconds = periodMillis / 1000;
+            if (seconds % 86400 == 0) return "every " + seconds / 86400 + "d";
+            if (seconds % 3600 == 0) return "every " + seconds / 3600 + "h";
+            if (seconds % 60 == 0) return "every " + seconds / 60 + "m";
+            return "every " + seconds + "s";
+        }
+
+        @Override
+        public String describe() { return "Repeating"; }
+
+        public long getPeriodMillis() { return periodMillis; }
+        public long getAnchorMillis() { return anchorMillis; }
+    }
+
+    public static class Cron extends TaskSchedule {
+        private static final long serialVersionUID = 1L;
+        private final CronExpression expression;
+
+        public Cron(CronExpression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public ZonedDateTime nextAfter(ZonedDateTime after) {
+            return expression.nextAfter(after);
+        }
+
+        @Override
+        public boolean isRecurring() { return true; }
+
+        @Override
+        public String getTimeText() { return expression.getExpression(); }
+
+        @Override
+        public String describe() { return "Cron"; }
+
+        public CronExpression getExpression() { return expression; }
+    }
+}
\ No newline at end of file
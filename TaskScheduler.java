@@ -0,0 +1,163 @@
+import java.time.ZoneId;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Runs scheduled tasks at their next execution instant instead of polling every
+// minute. Tasks sit in a priority queue keyed on the fire time cached on each
+// task, so each wake-up only touches the tasks that are due, and a late wake-up
+// still fires everything it overslept instead of skipping it.
+public class TaskScheduler {
+    private static final long MAX_SLEEP_MILLIS = 60000; // Re-read the wall clock at least once a minute
+
+    private final PriorityQueue<Entry> queue;
+    private final ReentrantLock lock;
+    private final Condition headChanged;
+    private final Consumer<ScheduledTask> executor;
+    private final ZoneId zone;
+    private Thread worker;
+    private volatile boolean running;
+
+    public TaskScheduler(Consumer<ScheduledTask> executor) {
+        this.queue = new PriorityQueue<>();
+        this.lock = new ReentrantLock();
+        this.headChanged = lock.newCondition();
+        this.executor = executor;
+        this.zone = ZoneId.systemDefault();
+    }
+
+    public void start() {
+        running = true;
+        worker = new Thread(this::runLoop, "task-scheduler");
+        worker.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        lock.lock();
+        try {
+            headChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void schedule(ScheduledTask task) {
+        task.scheduler = this;
+        reschedule(task);
+    }
+
+    public void cancel(ScheduledTask task) {
+        lock.lock();
+        try {
+            // Any queued entry for this task is now stale and gets dropped when it reaches the head
+            task.scheduleGeneration++;
+            if (task.scheduler == this) task.scheduler = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called whenever a task's time, recurrence or enabled flag changes
+    void reschedule(ScheduledTask task) {
+        lock.lock();
+        try {
+            int generation = ++task.scheduleGeneration;
+            if (task.isEnabled()) {
+                long fireAt = task.armFrom(System.currentTimeMillis(), zone);
+                if (fireAt > 0) enqueue(new Entry(task, fireAt, generation));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Entry entry) {
+        Entry head = queue.peek();
+        queue.add(entry);
+        if (head == null || entry.fireAt < head.fireAt) {
+            headChanged.signal();
+        }
+    }
+
+    private void runLoop() {
+        while (running) {
+            Entry due = takeDue();
+            if (due == null) continue;
+            try {
+                executor.accept(due.task);
+            } catch (RuntimeException e) {
+                System.err.println("Error executing scheduled task: " + e.getMessage());
+            }
+            if (due.task.isRecurring()) {
+                lock.lock();
+                try {
+                    // Only re-arm if nothing rescheduled or cancelled the task while it ran
+                    if (due.generation == due.task.scheduleGeneration && due.task.isEnabled()) {
+                        long fireAt = due.task.advance(due.fireAt, System.currentTimeMillis(), zone);
+                        if (fireAt > 0) enqueue(new Entry(due.task, fireAt, due.generation));
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private Entry takeDue() {
+        lock.lock();
+        try {
+            while (running) {
+                Entry head = queue.peek();
+                if (head != null && head.generation != head.task.scheduleGeneration) {
+                    queue.poll(); // Stale entry left behind by reschedule or cancel
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                if (head != null && head.fireAt <= now) {
+                    return queue.poll();
+                }
+                long wait = head == null ? MAX_SLEEP_MILLIS : Math.min(head.fireAt - now, MAX_SLEEP_MILLIS);
+                try {
+                    headChanged.await(wait, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running = false;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final ScheduledTask task;
+        final long fireAt;
+        final int generation;
+
+        Entry(ScheduledTask task, long fireAt, int generation) {
+            this.task = task;
+            this.fireAt = fireAt;
+            this.generation = generation;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byTime = Long.compare(fireAt, other.fireAt);
+            // Tasks due at the same instant run in the order they were added
+            return byTime != 0 ? byTime : Long.compare(task.registrySeq, other.task.registrySeq);
+        }
+    }
+}
\ No newline at end of file
@@ -1,74 +1,133 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.List;
+import java.util.Objects;
 
 public class Thermostat extends Device implements Serializable {
     private static final long serialVersionUID = 1L;
     private int targetTemperature;
     private int currentTemperature;
-    private String mode; // "heat", "cool", "off"
+    private ThermostatMode mode;
     
     public Thermostat(String name) {
         super(name);
         this.targetTemperature = 22;
         this.currentTemperature = 22;
-        this.mode = "off";
+        this.mode = ThermostatMode.OFF;
     }
     
     @Override
-    public String getStatus() {
-        return String.format("%s: Mode: %s, Target: %d°C, Current: %d°C", 
-                           name, mode, targetTemperature, currentTemperature);
+    protected void renderStatus(StringBuilder sb) {
+        sb.append(name).append(": Mode: ").append(mode)
+          .append(", Target: ").append(targetTemperature)
+          .append("°C, Current: ").append(currentTemperature).append("°C");
     }
     
     @Override
     public void toggle() {
-        if (mode.equals("off")) {
-            mode = "heat";
-        } else if (mode.equals("heat")) {
-            mode = "cool";
-        } else {
-            mode = "off";
-        }
-        notifyObservers();
+        ThermostatMode oldMode = mode;
+        mode = mode.next();
+        firePropertyChange(DeviceEvent.MODE, oldMode, mode);
     }
     
     @Override
     public void turnOn() {
-        if (mode.equals("off")) {
-            mode = "heat";
+        ThermostatMode oldMode = mode;
+        if (mode == ThermostatMode.OFF) {
+            mode = ThermostatMode.HEAT;
         }
-        notifyObservers();
+        firePropertyChange(DeviceEvent.MODE, oldMode, mode);
     }
     
     @Override
     public void turnOff() {
-        mode = "off";
-        notifyObservers();
+        ThermostatMode oldMode = mode;
+        mode = ThermostatMode.OFF;
+        firePropertyChange(DeviceEvent.MODE, oldMode, mode);
     }
     
     public void setTargetTemperature(int temperature) {
         if (temperature >= 10 && temperature <= 35) {
+            int oldTarget = this.targetTemperature;
+            ThermostatMode oldMode = mode;
             this.targetTemperature = temperature;
-            if (mode.equals("off")) {
-                mode = "heat";
+            if (mode == ThermostatMode.OFF) {
+                mode = ThermostatMode.HEAT;
+            }
+            beginUpdate();
+            try {
+                firePropertyChange(DeviceEvent.MODE, oldMode, mode);
+                firePropertyChange(DeviceEvent.TARGET_TEMPERATURE, oldTarget, temperature);
+            } finally {
+                endUpdate();
             }
-            notifyObservers();
         }
     }
     
     public void setCurrentTemperature(int temperature) {
         if (temperature >= -10 && temperature <= 50) {
+            int oldCurrent = this.currentTemperature;
             this.currentTemperature = temperature;
-            notifyObservers();
+            firePropertyChange(DeviceEvent.CURRENT_TEMPERATURE, oldCurrent, temperature);
         }
     }
     
-    // THIS WAS MISSING - ADD THIS METHOD
-    public void setMode(String mode) {
+    public void setMode(ThermostatMode mode) {
+        Objects.requireNonNull(mode, "mode");
+        ThermostatMode oldMode = this.mode;
         this.mode = mode;
-        notifyObservers();
+        firePropertyChange(DeviceEvent.MODE, oldMode, mode);
+    }
+    
+    // Throws IllegalArgumentException for anything but "heat", "cool" or "off"
+    public void setMode(String mode) {
+        setMode(ThermostatMode.parse(mode));
     }
     
     public int getTargetTemperature() { return targetTemperature; }
     public int getCurrentTemperature() { return currentTemperature; }
-    public String getMode() { return mode; }
+    public ThermostatMode getMode() { return mode; }
+    
+    @Override
+    protected void captureState(List<DeviceEvent> state) {
+        super.captureState(state);
+        state.add(DeviceEvent.ofInt(this, DeviceEvent.TARGET_TEMPERATURE, targetTemperature, targetTemperature));
+        state.add(DeviceEvent.ofInt(this, DeviceEvent.CURRENT_TEMPERATURE, currentTemperature, currentTemperature));
+        state.add(DeviceEvent.ofChoice(this, DeviceEvent.MODE, mode, mode));
+    }
+    
+    @Override
+    protected boolean restoreState(String property, long value, String text) {
+        switch (property) {
+            case DeviceEvent.TARGET_TEMPERATURE: targetTemperature = (int) value; return true;
+            case DeviceEvent.CURRENT_TEMPERATURE: currentTemperature = (int) value; return true;
+            case DeviceEvent.MODE: mode = text != null ? ThermostatMode.parse(text) : ThermostatMode.of((int) value); return true;
+            default: return super.restoreState(property, value, text);
+        }
+    }
+    
+    // Java serialization keeps the mode as text, as files saved before the enum have it
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("targetTemperature", int.class),
+        new ObjectStreamField("currentTemperature", int.class),
+        new ObjectStreamField("mode", String.class)
+    };
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("targetTemperature", targetTemperature);
+        fields.put("currentTemperature", currentTemperature);
+        fields.put("mode", mode.toString());
+        out.writeFields();
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        targetTemperature = fields.get("targetTemperature", 22);
+        currentTemperature = fields.get("currentTemperature", 22);
+        mode = ThermostatMode.parse((String) fields.get("mode", "off"));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+import java.util.Locale;
+
+// Operating mode of a thermostat. Ordinals are stored in saved files and the journal:
+// only ever append new modes.
+public enum ThermostatMode {
+    OFF, HEAT, COOL;
+
+    private static final ThermostatMode[] VALUES = values();
+
+    // The mode toggle() moves to: off -> heat -> cool -> off
+    public ThermostatMode next() {
+        return VALUES[(ordinal() + 1) % VALUES.length];
+    }
+
+    // "heat", "cool" or "off", as shown and saved as text
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public static ThermostatMode of(int ordinal) {
+        if (ordinal < 0 || ordinal >= VALUES.length) throw new IllegalArgumentException("Unknown thermostat mode " + ordinal);
+        return VALUES[ordinal];
+    }
+
+    public static ThermostatMode parse(String text) {
+        for (ThermostatMode mode : VALUES) {
+            if (mode.toString().equalsIgnoreCase(text)) return mode;
+        }
+        throw new IllegalArgumentException("Unknown thermostat mode: " + text);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,644 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+// Incremental persistence: a snapshot file plus a log of the devices and tasks changed
+// since. Changing something only marks it dirty; a writer thread wakes every commit
+// interval, writes the current state of everything marked as one group and fsyncs at
+// most once per fsync interval. A device changed a hundred times between commits costs
+// one record, and one whose version hasn't moved since it was last written costs none,
+// so the work follows the rate of change rather than the number of devices.
+//
+// With a maximum delay set (see setAutosave) the writer waits for a commit interval
+// without new changes before writing, so a burst of edits is saved once it settles,
+// but never later than the maximum delay after the first of them.
+//
+// The log is a series of numbered files. When the current one outgrows the compaction
+// threshold the writer moves on to the next number and hands a snapshot of the current
+// state to a Checkpointer, which writes it in the background while logging carries on.
+// The snapshot records the last log number it covers; once it is safely renamed into
+// place those logs are deleted, and recovery ignores any that were left behind.
+//
+// Log record: int payload length, int CRC32 of the payload, payload. Payload is a kind
+// byte followed by a DeviceCodec/TaskCodec record (puts) or an id (removes). Recovery
+// stops at the first torn or corrupt record and cuts the log there.
+public class WriteAheadLog implements Closeable {
+    public static final long DEFAULT_COMMIT_MILLIS = 5;
+    public static final long DEFAULT_FSYNC_MILLIS = 50;
+    public static final long DEFAULT_COMPACT_BYTES = 16L << 20;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 0; // Write at every commit interval
+
+    private static final String LOG_PREFIX = "changes-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String LEGACY_LOG_FILE = "changes.log"; // Single log of format 1
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final int SNAPSHOT_MAGIC = 0x53485753; // "SHWS"
+    private static final int FORMAT_VERSION = 3; // 2 added the covered log number, 3 chunked devices
+    private static final byte DEVICE_PUT = 1;
+    private static final byte DEVICE_REMOVE = 2;
+    private static final byte TASK_PUT = 3;
+    private static final byte TASK_REMOVE = 4;
+    private static final Object REMOVED = new Object(); // Dirty-map value for a removal
+
+    private final Path directory;
+    private volatile long commitNanos;
+    private volatile long maxDelayNanos;
+    private final long fsyncNanos;
+    private final long compactBytes;
+    private final Checkpointer checkpointer = new Checkpointer("wal-checkpoint");
+    private final boolean empty;
+    private final SavedState recovered = new SavedState();
+
+    // Written by any thread, drained by the writer
+    private final Map<String, Object> dirtyDevices = new ConcurrentHashMap<>();
+    private final Map<String, Object> dirtyTasks = new ConcurrentHashMap<>();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicReference<CompletableFuture<Void>> compactRequest = new AtomicReference<>();
+    private final Queue<SyncRequest> syncWaiting = new ConcurrentLinkedQueue<>();
+
+    // Writer thread state
+    private final Object monitor = new Object();
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+    private final BinaryWriter recordWriter = new BinaryWriter(Channels.newChannel(recordBytes));
+    private final CRC32 crc = new CRC32();
+    private final List<CompletableFuture<Void>> compactWaiting = new ArrayList<>();
+    private final Map<String, Saved> saved = new HashMap<>(); // What the log holds for each id
+    private FileChannel log;
+    private BinaryWriter logWriter;
+    private long generation;                 // Number of the log being written
+    private CompletableFuture<Void> checkpoint; // Snapshot being written, if any
+    private Supplier<List<Device>> deviceSource;
+    private Supplier<List<ScheduledTask>> taskSource;
+    private Thread writer;
+    private long written;            // Last change count written to the log
+    private volatile long durable;   // Last change count known to be on disk
+    private long lastSync;
+    private volatile boolean syncRequested;
+    private volatile boolean open;
+
+    public WriteAheadLog(Path directory) throws IOException {
+        this(directory, DEFAULT_COMMIT_MILLIS, DEFAULT_FSYNC_MILLIS, DEFAULT_COMPACT_BYTES);
+    }
+
+    // fsyncMillis 0 syncs every commit; larger values trade the last few milliseconds of
+    // changes on power loss for fewer disk flushes
+    public WriteAheadLog(Path directory, long commitMillis, long fsyncMillis, long compactBytes) throws IOException {
+        if (commitMillis < 1) throw new IllegalArgumentException("Commit interval must be at least 1 ms");
+        this.directory = directory;
+        this.commitNanos = TimeUnit.MILLISECONDS.toNanos(commitMillis);
+        this.fsyncNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, fsyncMillis));
+        this.compactBytes = compactBytes;
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(SNAPSHOT_FILE + ".tmp")); // From an interrupted checkpoint
+        long covered = readSnapshot(recovered);
+        Path legacy = directory.resolve(LEGACY_LOG_FILE);
+        if (Files.exists(legacy)) {
+            Files.move(legacy, logPath(covered + 1));
+        }
+
+        boolean found = Files.exists(directory.resolve(SNAPSHOT_FILE));
+        this.generation = covered + 1;
+        for (long number : logNumbers()) {
+            if (number <= covered) {
+                Files.delete(logPath(number)); // Already in the snapshot
+                continue;
+            }
+            if (log != null) log.close();
+            log = openLog(number);
+            found |= log.size() > 0;
+            long valid = replayLog(log, recovered);
+            if (valid < log.size()) {
+                System.err.println("Change log cut at " + valid + " of " + log.size() + " bytes");
+                log.truncate(valid);
+            }
+            log.position(valid);
+            generation = number;
+        }
+        if (log == null) log = openLog(generation);
+        this.logWriter = new BinaryWriter(log);
+        this.empty = !found;
+        // Handed back as they are on disk, so they aren't written again until they change
+        for (Device device : recovered.devices.values()) {
+            saved.put(device.getId(), new Saved(device, device.getVersion()));
+        }
+        for (ScheduledTask task : recovered.tasks.values()) {
+            saved.put(task.getId(), new Saved(task, task.getVersion()));
+        }
+    }
+
+    // Autosave pacing, adjustable while running. The writer looks for changes every
+    // commit interval and writes them once an interval passes with no new ones, or when
+    // waiting another interval would hold the oldest past maxDelay. A maxDelay no longer
+    // than the interval writes at every look.
+    public void setAutosave(long commitMillis, long maxDelayMillis) {
+        if (commitMillis < 1) throw new IllegalArgumentException("Commit interval must be at least 1 ms");
+        this.commitNanos = TimeUnit.MILLISECONDS.toNanos(commitMillis);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMillis));
+        Thread w = writer;
+        if (w != null) LockSupport.unpark(w);
+    }
+
+    // True when there was neither a snapshot nor any logged change when opened
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    // State found on disk when the log was opened, in the order it was first saved
+    public List<Device> getRecoveredDevices() {
+        return recovered.getDevices();
+    }
+
+    public List<ScheduledTask> getRecoveredTasks() {
+        return recovered.getTasks();
+    }
+
+    // Everything saved so far, read back as new objects without disturbing the writer:
+    // waits until earlier changes are on disk, then reads the snapshot and the logs after it
+    public SavedState readSaved() throws IOException {
+        sync();
+        while (true) {
+            SavedState state = new SavedState();
+            long covered = readSnapshot(state);
+            try {
+                for (long number : logNumbers()) {
+                    if (number <= covered) continue;
+                    try (FileChannel channel = FileChannel.open(logPath(number), StandardOpenOption.READ)) {
+                        replayLog(channel, state);
+                    }
+                }
+                return state;
+            } catch (NoSuchFileException e) {
+                // A new snapshot took over those logs while they were read, start again
+            }
+        }
+    }
+
+    // Starts logging; the suppliers give the full current state for compaction
+    public synchronized void start(Supplier<List<Device>> devices, Supplier<List<ScheduledTask>> tasks) {
+        if (writer != null) throw new IllegalStateException("Already started");
+        this.deviceSource = devices;
+        this.taskSource = tasks;
+        this.lastSync = System.nanoTime();
+        this.open = true;
+        writer = new Thread(this::run, "write-ahead-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void deviceChanged(Device device) {
+        mark(dirtyDevices, device.getId(), device);
+    }
+
+    public void deviceRemoved(String deviceId) {
+        mark(dirtyDevices, deviceId, REMOVED);
+    }
+
+    public void taskChanged(ScheduledTask task) {
+        mark(dirtyTasks, task.getId(), task);
+    }
+
+    public void taskRemoved(String taskId) {
+        mark(dirtyTasks, taskId, REMOVED);
+    }
+
+    // Blocks until every change made before the call is on disk
+    public void sync() {
+        long target = changes.get();
+        if (durable >= target || writer == null) return;
+        syncRequested = true;
+        LockSupport.unpark(writer);
+        synchronized (monitor) {
+            while (durable < target && writer.isAlive()) {
+                try {
+                    monitor.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Like sync() without waiting: the future completes once every change made before
+    // the call is on disk. Fails once the log is closed with changes not yet on disk.
+    public CompletableFuture<Void> requestSync() {
+        long target = changes.get();
+        if (durable >= target || writer == null) return CompletableFuture.completedFuture(null);
+        if (!open) return CompletableFuture.failedFuture(new IOException("Change log closed"));
+        SyncRequest request = new SyncRequest(target);
+        syncWaiting.add(request);
+        syncRequested = true;
+        LockSupport.unpark(writer);
+        if (durable >= target) request.done.complete(null); // Raced with the writer
+        // Raced with close(): a writer that has stopped won't see the request
+        if (!open && !writer.isAlive()) request.done.completeExceptionally(new IOException("Change log closed"));
+        return request.done;
+    }
+
+    // Starts a new snapshot of everything changed so far without waiting for it. The
+    // future completes once the snapshot is on disk; requests made before the writer
+    // gets to them share one snapshot.
+    public CompletableFuture<Void> compact() {
+        if (writer == null) return CompletableFuture.completedFuture(null);
+        while (true) {
+            CompletableFuture<Void> requested = compactRequest.get();
+            if (requested != null) return requested;
+            CompletableFuture<Void> request = new CompletableFuture<>();
+            if (compactRequest.compareAndSet(null, request)) {
+                LockSupport.unpark(writer);
+                return request;
+            }
+        }
+    }
+
+    // Writes and syncs what is still pending, stops the writer and lets a snapshot in
+    // progress finish
+    @Override
+    public void close() throws IOException {
+        Thread w;
+        synchronized (this) {
+            w = writer;
+            open = false;
+        }
+        if (w != null) {
+            LockSupport.unpark(w);
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkpointer.close();
+        log.close();
+        for (SyncRequest request : syncWaiting) {
+            request.done.completeExceptionally(new IOException("Change log closed"));
+        }
+    }
+
+    // The put must come before the count, see commit()
+    private void mark(Map<String, Object> dirty, String id, Object value) {
+        dirty.put(id, value);
+        changes.incrementAndGet();
+    }
+
+    private void run() {
+        long seen = 0;         // Change count at the previous look
+        long pendingSince = 0; // When unwritten changes were first seen, 0 when there are none
+        while (true) {
+            boolean closing = !open;
+            if (!closing && !syncRequested && compactRequest.get() == null) {
+                LockSupport.parkNanos(this, commitNanos);
+            }
+            CompletableFuture<Void> requested = compactRequest.getAndSet(null);
+            if (requested != null) compactWaiting.add(requested);
+
+            long now = System.nanoTime();
+            long count = changes.get();
+            if (count == written) {
+                pendingSince = 0;
+            } else if (pendingSince == 0) {
+                pendingSince = now;
+            }
+            boolean due = closing || syncRequested || !compactWaiting.isEmpty()
+                    || count == seen || now - pendingSince + commitNanos > maxDelayNanos;
+            seen = count;
+            try {
+                boolean forceSync = closing || syncRequested;
+                syncRequested = false;
+                if (due) {
+                    commit(forceSync);
+                    pendingSince = 0; // Anything newer is seen at the next look
+                } else {
+                    syncLog(false); // Still finish off what earlier commits wrote
+                }
+                // One snapshot at a time; a request made meanwhile waits for the next
+                boolean idle = checkpoint == null || checkpoint.isDone();
+                if (idle && (!compactWaiting.isEmpty() || log.size() >= compactBytes)) {
+                    startCheckpoint();
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing change log: " + e.getMessage());
+                for (CompletableFuture<Void> waiting : compactWaiting) {
+                    waiting.completeExceptionally(e);
+                }
+                compactWaiting.clear();
+            }
+            if (closing) {
+                for (CompletableFuture<Void> waiting : compactWaiting) {
+                    waiting.completeExceptionally(new IOException("Change log closed"));
+                }
+                return;
+            }
+        }
+    }
+
+    private void commit(boolean forceSync) throws IOException {
+        writeDirty();
+        syncLog(forceSync);
+    }
+
+    // Every change counted up to 'target' was put into a dirty map before the count was
+    // read, so draining afterwards is guaranteed to include it
+    private void writeDirty() throws IOException {
+        long target = changes.get();
+        if (target == written) return;
+        BinaryWriter out = logWriter;
+        for (Map.Entry<String, Object> entry : dirtyDevices.entrySet()) {
+            // Remove first, then encode: a change after this point marks it again
+            if (!dirtyDevices.remove(entry.getKey(), entry.getValue())) continue;
+            if (entry.getValue() == REMOVED) {
+                saved.remove(entry.getKey());
+                writeRecord(out, DEVICE_REMOVE, entry.getKey(), null);
+            } else {
+                Device device = (Device) entry.getValue();
+                if (isNewVersion(device.getId(), device, device.getVersion())) {
+                    writeRecord(out, DEVICE_PUT, null, device);
+                }
+            }
+        }
+        for (Map.Entry<String, Object> entry : dirtyTasks.entrySet()) {
+            if (!dirtyTasks.remove(entry.getKey(), entry.getValue())) continue;
+            if (entry.getValue() == REMOVED) {
+                saved.remove(entry.getKey());
+                writeRecord(out, TASK_REMOVE, entry.getKey(), null);
+            } else {
+                ScheduledTask task = (ScheduledTask) entry.getValue();
+                if (isNewVersion(task.getId(), task, task.getVersion())) {
+                    writeRecord(out, TASK_PUT, null, task);
+                }
+            }
+        }
+        out.flush();
+        written = target;
+    }
+
+    // Read before encoding, so a change made while encoding leaves the version ahead of
+    // what was saved and gets written next time
+    private boolean isNewVersion(String id, Object item, long version) {
+        Saved last = saved.get(id);
+        if (last == null) {
+            saved.put(id, new Saved(item, version));
+            return true;
+        }
+        if (last.item == item && last.version == version) return false;
+        last.item = item;
+        last.version = version;
+        return true;
+    }
+
+    private void syncLog(boolean forceSync) throws IOException {
+        long now = System.nanoTime();
+        if (written != durable && (forceSync || now - lastSync >= fsyncNanos)) {
+            log.force(false);
+            lastSync = now;
+            synchronized (monitor) {
+                durable = written;
+                monitor.notifyAll();
+            }
+        }
+        if (!syncWaiting.isEmpty()) {
+            long done = durable;
+            syncWaiting.removeIf(request -> {
+                if (request.target > done) return false;
+                request.done.complete(null);
+                return true;
+            });
+        }
+    }
+
+    private void writeRecord(BinaryWriter out, byte kind, String id, Object item) throws IOException {
+        recordBytes.reset();
+        recordWriter.writeByte(kind);
+        if (item instanceof Device) {
+            DeviceCodec.write((Device) item, recordWriter);
+        } else if (item instanceof ScheduledTask) {
+            TaskCodec.write((ScheduledTask) item, recordWriter);
+        } else {
+            recordWriter.writeString(id);
+        }
+        recordWriter.flush();
+        byte[] payload = recordBytes.toByteArray();
+        crc.reset();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.writeBytes(payload);
+    }
+
+    // Moves logging on to a new file and snapshots the current state in the background.
+    // Every change in the older logs was made before the snapshot reads that device or
+    // task, so the snapshot covers them. A change made after the switch is in the new
+    // log, and replaying it over the snapshot ends at the newest state either way.
+    private void startCheckpoint() throws IOException {
+        commit(true);
+        FileChannel next = openLog(generation + 1);
+        Checkpointer.syncDirectory(directory);
+        log.close();
+        log = next;
+        logWriter = new BinaryWriter(next);
+        long covered = generation++;
+
+        // The registries hand out immutable lists, so this is the state from now on
+        List<Device> devices = deviceSource.get();
+        List<ScheduledTask> tasks = taskSource.get();
+        List<CompletableFuture<Void>> waiting = new ArrayList<>(compactWaiting);
+        compactWaiting.clear();
+        checkpoint = checkpointer.submit(directory.resolve(SNAPSHOT_FILE), out -> {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.writeLong(covered);
+            out.writeInt(devices.size());
+            DeviceCodec.writeChunked(devices, out);
+            out.writeInt(tasks.size());
+            for (ScheduledTask task : tasks) {
+                TaskCodec.write(task, out);
+            }
+        }).whenComplete((ignored, error) -> {
+            if (error == null) {
+                deleteLogsUpTo(covered);
+            } else {
+                System.err.println("Error writing snapshot: " + error.getMessage());
+            }
+            for (CompletableFuture<Void> request : waiting) {
+                if (error == null) request.complete(null);
+                else request.completeExceptionally(error);
+            }
+        });
+    }
+
+    private void deleteLogsUpTo(long covered) {
+        try {
+            for (long number : logNumbers()) {
+                if (number <= covered) Files.deleteIfExists(logPath(number));
+            }
+        } catch (IOException e) {
+            // Left for recovery to skip and delete
+        }
+    }
+
+    private Path logPath(long number) {
+        return directory.resolve(String.format("%s%010d%s", LOG_PREFIX, number, LOG_SUFFIX));
+    }
+
+    private FileChannel openLog(long number) throws IOException {
+        return FileChannel.open(logPath(number), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // Numbers of the log files in the directory, oldest first
+    private List<Long> logNumbers() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    // Returns the number of the last log the snapshot covers, -1 without a snapshot
+    private long readSnapshot(SavedState state) throws IOException {
+        Path path = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(path)) return -1;
+        try (BinaryReader in = BinaryReader.open(path)) {
+            if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException(path + " is not a snapshot");
+            int version = in.readShort();
+            if (version > FORMAT_VERSION) throw new IOException(path + " was written by a newer version (format " + version + ")");
+            long covered = version >= 2 ? in.readLong() : 0;
+            int deviceCount = in.readInt();
+            if (version >= 3) {
+                for (Device device : DeviceCodec.readChunked(in, deviceCount)) {
+                    state.devices.put(device.getId(), device);
+                }
+            } else {
+                for (int i = 0; i < deviceCount; i++) {
+                    Device device = DeviceCodec.read(in);
+                    state.devices.put(device.getId(), device);
+                }
+            }
+            int taskCount = in.readInt();
+            for (int i = 0; i < taskCount; i++) {
+                try {
+                    ScheduledTask task = TaskCodec.read(in);
+                    state.tasks.put(task.getId(), task);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping invalid task: " + e.getMessage());
+                }
+            }
+            return covered;
+        }
+    }
+
+    // Applies records from the start of the channel up to the first torn or corrupt one
+    // and returns where that is
+    private static long replayLog(FileChannel channel, SavedState state) throws IOException {
+        BinaryReader in = new BinaryReader(channel);
+        CRC32 check = new CRC32();
+        long valid = 0;
+        try {
+            while (true) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || length > channel.size()) break;
+                byte[] payload = new byte[length];
+                in.readBytes(payload);
+                check.reset();
+                check.update(payload);
+                if ((int) check.getValue() != checksum) break;
+                apply(payload, state);
+                valid += 8 + length;
+            }
+        } catch (EOFException e) {
+            // Torn final record, or simply the end
+        }
+        return valid;
+    }
+
+    private static void apply(byte[] payload, SavedState state) throws IOException {
+        BinaryReader in = new BinaryReader(ByteBuffer.wrap(payload));
+        switch (in.readByte()) {
+            case DEVICE_PUT:
+                Device device = DeviceCodec.read(in);
+                state.devices.put(device.getId(), device);
+                break;
+            case DEVICE_REMOVE:
+                state.devices.remove(in.readString());
+                break;
+            case TASK_PUT:
+                try {
+                    ScheduledTask task = TaskCodec.read(in);
+                    state.tasks.put(task.getId(), task);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping invalid task: " + e.getMessage());
+                }
+                break;
+            case TASK_REMOVE:
+                state.tasks.remove(in.readString());
+                break;
+            default:
+                throw new IOException("Unknown change log record");
+        }
+    }
+
+    // Devices and tasks read back from disk, in the order they were first saved
+    public static final class SavedState {
+        private final Map<String, Device> devices = new LinkedHashMap<>();
+        private final Map<String, ScheduledTask> tasks = new LinkedHashMap<>();
+
+        SavedState() {
+        }
+
+        public List<Device> getDevices() {
+            return new ArrayList<>(devices.values());
+        }
+
+        public List<ScheduledTask> getTasks() {
+            return new ArrayList<>(tasks.values());
+        }
+    }
+
+    // Last version of a device or task written to the log
+    private static final class Saved {
+        Object item;
+        long version;
+
+        Saved(Object item, long version) {
+            this.item = item;
+            this.version = version;
+        }
+    }
+
+    private static final class SyncRequest {
+        final long target;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        SyncRequest(long target) {
+            this.target = target;
+        }
+    }
+}
\ No newline at end of file